@@ -0,0 +1,35 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.RequestContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * @author codeep
+ * @date 2023/8/28 9:40
+ * @description: 异步接口的线程池
+ * 异步接口等待 Redis 时不占用 Tomcat 的线程；需要阻塞的部分(缓存未命中查库、秒杀下单)放到这个有界线程池里执行，
+ * 它同时起到隔离舱的作用：排满之后直接拒绝，不会把 Tomcat 的线程也拖进去
+ * 提交的任务经 TaskDecorator 带上提交线程的请求上下文(用户、链路 id)
+ */
+@Configuration
+public class AsyncConfig {
+
+    public static final String ASYNC_REQUEST_EXECUTOR = "asyncRequestExecutor";
+
+    @Bean(ASYNC_REQUEST_EXECUTOR)
+    public ThreadPoolTaskExecutor asyncRequestExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(16);
+        executor.setMaxPoolSize(32);
+        executor.setQueueCapacity(500);
+        executor.setThreadNamePrefix("async-request-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setTaskDecorator(RequestContext::wrap);
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+}
@@ -1,10 +1,17 @@
 package com.hmdp.config;
 
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RateLimitInterceptor;
+import com.hmdp.utils.RateLimiter;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SignedTokenCodec;
+import com.hmdp.utils.TokenRevocationList;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Controller;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -22,6 +29,32 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private LoginSessionCache loginSessionCache;
+
+    @Resource
+    private SignedTokenCodec signedTokenCodec;
+
+    @Resource
+    private TokenRevocationList tokenRevocationList;
+
+    @Resource
+    private RateLimiter rateLimiter;
+
+    @Resource(name = AsyncConfig.ASYNC_REQUEST_EXECUTOR)
+    private ThreadPoolTaskExecutor asyncRequestExecutor;
+
+    /**
+     * 异步接口的超时时间，超时返回 503；返回 Callable 的接口在 asyncRequestExecutor 上执行
+     */
+    private static final long ASYNC_REQUEST_TIMEOUT = 5000L;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(ASYNC_REQUEST_TIMEOUT);
+        configurer.setTaskExecutor(asyncRequestExecutor);
+    }
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         // 登录拦截器
@@ -29,14 +62,38 @@ public class MvcConfig implements WebMvcConfigurer {
                 .excludePathPatterns(
                         "/user/login",
                         "/blog/hot",
+                        "/blog/*",
+                        "/blog/likes/*",
+                        "/blog-comments/of/blog/*",
+                        "/blog-comments/replies/*",
                         "/user/code",
                         "/shop/**",
                         "/shop-type/**",
                         "/upload/**",
+                        "/imgs/**",
                         "/voucher/**"
                 ).order(1);
         // token 刷新拦截器 / 其实默认拦截所有
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
+        registry.addInterceptor(new RefreshTokenInterceptor(
+                        stringRedisTemplate, loginSessionCache, signedTokenCodec, tokenRevocationList))
                 .addPathPatterns("/**").order(0);
+
+        // 限流拦截器：按 IP、手机号的放在最前面，不用先查登录信息就能拒绝
+        // 同一个手机号 60 秒只能发一次验证码
+        registry.addInterceptor(new RateLimitInterceptor(
+                        rateLimiter, "code:phone", RateLimitInterceptor.byParam("phone"), 1, 1.0 / 60))
+                .addPathPatterns("/user/code").order(-1);
+        // 同一个 IP 每分钟最多发 10 次验证码
+        registry.addInterceptor(new RateLimitInterceptor(
+                        rateLimiter, "code:ip", RateLimitInterceptor.byIp(), 10, 10.0 / 60))
+                .addPathPatterns("/user/code").order(-1);
+        // 同一个 IP 查店铺详情，允许 50 次突发，平均每秒 20 次
+        registry.addInterceptor(new RateLimitInterceptor(
+                        rateLimiter, "shop:ip", RateLimitInterceptor.byIp(), 50, 20))
+                .addPathPatterns("/shop/*").order(-1);
+        // 同一个用户秒杀，允许 5 次突发，平均每秒 1 次(需要在 token 刷新拦截器之后才能拿到用户)
+        registry.addInterceptor(new RateLimitInterceptor(
+                        rateLimiter, "seckill:user", RateLimitInterceptor.byUser(), 5, 1))
+                .addPathPatterns("/voucher-order/seckill/**").order(2);
     }
 }
@@ -0,0 +1,50 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.ReferenceDataCache;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.TokenRevocationList;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_TOKEN_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.REFDATA_CHANGED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_NAME_CHANNEL;
+
+/**
+ * @author codeep
+ * @date 2023/8/10 9:40
+ * @description: Redis 发布订阅配置，用于多节点之间同步本地缓存失效
+ */
+@Configuration
+public class RedisConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory,
+            LoginSessionCache loginSessionCache,
+            TokenRevocationList tokenRevocationList,
+            ShopGeoIndex shopGeoIndex,
+            ShopNameIndex shopNameIndex,
+            ReferenceDataCache referenceDataCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 登出、踢人时广播 token，各节点清掉本地会话
+        container.addMessageListener(loginSessionCache, new ChannelTopic(LOGIN_TOKEN_INVALIDATE_CHANNEL));
+        // 签名令牌被吊销时广播签名，各节点加入本地布隆过滤器
+        container.addMessageListener(tokenRevocationList, new ChannelTopic(LOGIN_REVOKED_CHANNEL));
+        // 店铺坐标变更时广播，各节点更新本地空间索引
+        container.addMessageListener(shopGeoIndex, new ChannelTopic(SHOP_GEO_CHANNEL));
+        // 店铺名称、评分、销量变更时广播，各节点更新本地倒排索引
+        container.addMessageListener(shopNameIndex, new ChannelTopic(SHOP_NAME_CHANNEL));
+        // 字典表变更时广播名称，各节点重新加载本地快照
+        container.addMessageListener(referenceDataCache, new ChannelTopic(REFDATA_CHANGED_CHANNEL));
+        return container;
+    }
+}
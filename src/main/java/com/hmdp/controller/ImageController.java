@@ -0,0 +1,39 @@
+package com.hmdp.controller;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.utils.FileSender;
+import com.hmdp.utils.ThumbnailGenerator;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * @author codeep
+ * @date 2023/8/26 10:20
+ * @description: 直接提供上传图片的访问，路径和原来 nginx 的 /imgs/** 保持一致，前端不用改
+ */
+@RestController
+@RequestMapping("/imgs")
+public class ImageController {
+
+    @Resource
+    private ThumbnailGenerator thumbnailGenerator;
+
+    /**
+     * 获取图片，例如 /imgs/blogs/ab/cd/{sha256}.jpg?w=200
+     * @param width 期望的宽度，不传返回原图；只对按内容保存的原图有效，其他文件带宽度返回 404
+     */
+    @GetMapping("/**")
+    public void queryImage(@RequestParam(value = "w", defaultValue = "0") Integer width,
+                           HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String uri = request.getRequestURI().substring(request.getContextPath().length());
+        String name = StrUtil.removePrefix(uri, "/imgs");
+        FileSender.send(thumbnailGenerator.variant(name, width), request, response);
+    }
+}
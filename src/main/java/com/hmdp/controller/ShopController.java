@@ -1,15 +1,15 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UvCounter;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -26,14 +26,39 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private UvCounter uvCounter;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-        return shopService.queryById(id);
+    public CompletableFuture<Result> queryShopById(@PathVariable("id") Long id, HttpServletRequest request) {
+        // 访客要在请求线程上识别，异步回调里 request 已经不可用
+        String visitor = UvCounter.visitorOf(request);
+        // 异步查询，等待 Redis 期间不占用请求线程；店铺存在才记录 UV，只写本地缓冲
+        return shopService.queryByIdAsync(id).thenApply(result -> {
+            if (Boolean.TRUE.equals(result.getSuccess()) && result.getData() != null) {
+                uvCounter.record(UvCounter.TYPE_SHOP, id, visitor);
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 查询商铺最近几天的 UV
+     * @param id 商铺id
+     * @param days 天数，1 为当天，7 为周，30 为月
+     * @return 去重后的访客数
+     */
+    @GetMapping("/uv/{id}")
+    public Result queryShopUv(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "days", defaultValue = "1") Integer days
+    ) {
+        return Result.ok(uvCounter.count(UvCounter.TYPE_SHOP, id, Math.min(Math.max(days, 1), 31)));
     }
 
     /**
@@ -43,10 +68,7 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -63,19 +85,20 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param x 经度，可选
+     * @param y 纬度，可选
+     * @param lastId 滚动查询的游标，可选
      * @return 商铺列表
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "lastId", required = false) Long lastId
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByType(typeId, current, x, y, lastId);
     }
 
     /**
@@ -89,11 +112,6 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByName(name, current);
     }
 }
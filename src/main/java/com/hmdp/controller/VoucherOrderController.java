@@ -9,8 +9,10 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
+import java.util.concurrent.CompletionException;
 
 /**
  * <p>
@@ -27,8 +29,21 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    /**
+     * 秒杀的异步超时比全局的 5 秒长：排队期限之内开始的下单要有足够的时间完成，不能先给用户 503 再把订单建出来
+     */
+    private static final long SECKILL_ASYNC_TIMEOUT = 15000L;
+
     @PostMapping("seckill/{id}")
-    public Result seckillVoucher(@PathVariable("id") Long voucherId) {
-        return voucherOrderService.seckillVoucher(voucherId);
+    public DeferredResult<Result> seckillVoucher(@PathVariable("id") Long voucherId) {
+        DeferredResult<Result> result = new DeferredResult<>(SECKILL_ASYNC_TIMEOUT);
+        voucherOrderService.seckillVoucherAsync(voucherId).whenComplete((r, e) -> {
+            if (e != null) {
+                result.setErrorResult(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                result.setResult(r);
+            }
+        });
+        return result;
     }
 }
@@ -9,4 +9,12 @@ public class ScrollResult {
     private List<?> list;
     private Long minTime;
     private Integer offset;
+    /**
+     * 按 id 翻页的游标：本页最后一条的 id
+     */
+    private Long lastId;
+    /**
+     * 按 score 翻页的游标：本页最小的 score，配合 offset 使用
+     */
+    private Double minScore;
 }
@@ -0,0 +1,19 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class SignStatsDTO {
+    /**
+     * 截止今天的连续签到天数
+     */
+    private Integer streak;
+    /**
+     * 本月签到天数
+     */
+    private Integer monthCount;
+    /**
+     * 本月签到位图，第 d 天对应从高位数第 d 位(共 31 位)，前端据此渲染日历
+     */
+    private Integer monthBits;
+}
@@ -1,6 +1,7 @@
 package com.hmdp.entity;
 
 import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
 import lombok.Data;
@@ -9,6 +10,7 @@ import lombok.experimental.Accessors;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * <p>
@@ -77,5 +79,21 @@ public class BlogComments implements Serializable {
      */
     private LocalDateTime updateTime;
 
+    /**
+     * 评论人昵称
+     */
+    @TableField(exist = false)
+    private String name;
+    /**
+     * 评论人头像
+     */
+    @TableField(exist = false)
+    private String icon;
+    /**
+     * 一级评论下的前几条回复
+     */
+    @TableField(exist = false)
+    private List<BlogComments> replies;
+
 
 }
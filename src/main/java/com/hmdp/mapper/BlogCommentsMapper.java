@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.BlogComments;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,13 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogCommentsMapper extends BaseMapper<BlogComments> {
 
+    /**
+     * 一次查询多条一级评论各自的前 N 条回复
+     * @param blogId 笔记 id
+     * @param parentIds 一级评论 id
+     * @param limit 每条一级评论取的回复数
+     * @return 所有回复，按一级评论分组后组内按 id 升序
+     */
+    List<BlogComments> queryTopReplies(
+            @Param("blogId") Long blogId, @Param("parentIds") List<Long> parentIds, @Param("limit") int limit);
 }
@@ -0,0 +1,50 @@
+package com.hmdp.mapper;
+
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *  计数写回 Mapper 接口
+ * </p>
+ *
+ * @author codeep
+ * @since 2023-08-22
+ */
+public interface CounterMapper {
+
+    /**
+     * 批量累加某一列的计数
+     * @param table 表名，只能来自 CounterType，不接受外部输入
+     * @param column 列名，只能来自 CounterType，不接受外部输入
+     * @param deltas id -> 增量
+     * @return 影响行数
+     */
+    int incrBatch(@Param("table") String table, @Param("column") String column, @Param("deltas") Map<Long, Long> deltas);
+
+    /**
+     * 查询某一列的当前值
+     * @param table 表名，只能来自 CounterType，不接受外部输入
+     * @param column 列名，只能来自 CounterType，不接受外部输入
+     * @param ids 行 id
+     * @return 每行一个 map：id、value
+     */
+    List<Map<String, Object>> selectCounts(@Param("table") String table, @Param("column") String column,
+                                           @Param("ids") Collection<Long> ids);
+
+    /**
+     * 记录一个已经写回的批次
+     * @param batchId 批次 id
+     * @return 1 表示首次写回，0 表示这个批次之前已经写回过
+     */
+    int insertFlushLog(@Param("batchId") String batchId);
+
+    /**
+     * 清理一天前的批次记录
+     * @return 影响行数
+     */
+    int deleteExpiredFlushLog();
+}
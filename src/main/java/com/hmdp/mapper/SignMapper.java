@@ -0,0 +1,25 @@
+package com.hmdp.mapper;
+
+import com.hmdp.entity.Sign;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ *
+ * @author 虎哥
+ * @since 2021-12-22
+ */
+public interface SignMapper extends BaseMapper<Sign> {
+
+    /**
+     * 批量归档签到记录，同一用户同一个月重复归档时覆盖
+     * @param signs 签到记录
+     * @return 影响行数
+     */
+    int upsertBatch(@Param("signs") List<Sign> signs);
+}
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.User;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,10 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface UserMapper extends BaseMapper<User> {
 
+    /**
+     * 批量创建用户，手机号已存在的跳过
+     * @param users 用户，只用到 phone、nickName、icon
+     * @return 实际插入的行数
+     */
+    int insertIgnoreBatch(@Param("users") List<User> users);
 }
@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.BlogComments;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,26 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogCommentsService extends IService<BlogComments> {
 
+    /**
+     * 发表评论或回复
+     * @param comment 评论，parentId 为 0 或不传表示一级评论
+     * @return 评论 id
+     */
+    Result saveComment(BlogComments comment);
+
+    /**
+     * 按 id 倒序滚动查询笔记的一级评论，每条带上最早的几条回复
+     * @param blogId 笔记 id
+     * @param lastId 上一页最后一条评论的 id，0 表示第一页
+     * @return ScrollResult，list 为一级评论
+     */
+    Result queryComments(Long blogId, Long lastId);
+
+    /**
+     * 按 id 升序滚动查询某条一级评论下的回复
+     * @param parentId 一级评论 id
+     * @param lastId 上一页最后一条回复的 id，0 表示第一页
+     * @return ScrollResult，list 为回复
+     */
+    Result queryReplies(Long parentId, Long lastId);
 }
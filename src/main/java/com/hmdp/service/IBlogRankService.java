@@ -0,0 +1,53 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.entity.Blog;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author codeep
+ * @date 2023/8/14 9:40
+ * @description: 热门笔记排行，Redis zset 维护 博客 id -> 热度
+ */
+public interface IBlogRankService {
+
+    /**
+     * 每个点赞折算成多少热度，点赞脚本里用它做 ZINCRBY
+     */
+    double LIKE_WEIGHT = 1.0;
+
+    /**
+     * 新发布的笔记加入排行
+     * @param blog 笔记，需要有 id、liked、createTime
+     */
+    void add(Blog blog);
+
+    /**
+     * 分页查询热门笔记 id
+     * @param current 页码
+     * @param size 每页数量
+     * @return 按热度从高到低的笔记 id
+     */
+    List<Long> queryPage(int current, int size);
+
+    /**
+     * 按热度滚动查询，游标是上一页最小的热度和等于该热度的条数，翻页期间排行变化也不会错位
+     * @param max 上一页最小的热度，第一页传 null
+     * @param offset 上一页中与最小热度相同的条数
+     * @param size 每页数量
+     * @return list 为按热度从高到低的笔记 id，minScore 和 offset 为下一页的游标
+     */
+    ScrollResult queryScroll(Double max, int offset, int size);
+
+    /**
+     * queryPage 的异步版本，使用 Redis 异步命令
+     */
+    CompletableFuture<List<Long>> queryPageAsync(int current, int size);
+
+    /**
+     * queryScroll 的异步版本，使用 Redis 异步命令
+     */
+    CompletableFuture<ScrollResult> queryScrollAsync(Double max, int offset, int size);
+}
@@ -1,8 +1,12 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +17,76 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    /**
+     * 发布笔记
+     * @param blog 笔记
+     * @return 笔记 id
+     */
+    Result saveBlog(Blog blog);
+
+    /**
+     * 分页查询热门笔记，从 Redis 排行中取 id，再批量补全笔记内容和作者
+     * @param current 页码
+     * @return 笔记列表
+     */
+    Result queryHotBlog(Integer current);
+
+    /**
+     * 按热度滚动查询热门笔记
+     * @param max 上一页最小的热度，第一页不传
+     * @param offset 上一页中与最小热度相同的条数
+     * @return ScrollResult，list 为笔记列表
+     */
+    Result queryHotBlogScroll(Double max, Integer offset);
+
+    /**
+     * queryHotBlog 的异步版本：排行、笔记、作者缓存全部命中时全程使用 Redis 异步命令，有未命中的交给线程池走同步逻辑
+     * @param current 页码
+     * @return 笔记列表
+     */
+    CompletableFuture<Result> queryHotBlogAsync(Integer current);
+
+    /**
+     * queryHotBlogScroll 的异步版本
+     * @param max 上一页最小的热度，第一页不传
+     * @param offset 上一页中与最小热度相同的条数
+     * @return ScrollResult，list 为笔记列表
+     */
+    CompletableFuture<Result> queryHotBlogScrollAsync(Double max, Integer offset);
+
+    /**
+     * 查询当前用户的笔记，传 lastId 时按 id 倒序滚动查询，不传时按页码查询
+     * @param current 页码
+     * @param lastId 上一页最后一篇笔记的 id，0 表示第一页
+     * @return 按页码查询返回笔记列表，滚动查询返回 ScrollResult
+     */
+    Result queryMyBlog(Integer current, Long lastId);
+
+    /**
+     * 查询博客详情，带上作者信息和当前用户是否点过赞
+     * @param id 博客 id
+     * @return 博客详情
+     */
+    Result queryBlogById(Long id);
+
+    /**
+     * 点赞 / 取消点赞(同一用户再点一次就是取消)
+     * @param id 博客 id
+     * @return 无
+     */
+    Result likeBlog(Long id);
+
+    /**
+     * 查询最早点赞的前几名用户
+     * @param id 博客 id
+     * @return 用户列表
+     */
+    Result queryBlogLikes(Long id);
+
+    /**
+     * 按给定顺序批量查询笔记，并补全作者昵称头像、点赞数和当前用户是否点过赞
+     * @param ids 笔记 id
+     * @return 笔记列表，不存在的笔记会被跳过
+     */
+    List<Blog> queryBlogsByIds(List<Long> ids);
 }
@@ -0,0 +1,26 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Blog;
+
+/**
+ * @author codeep
+ * @date 2023/8/15 10:20
+ * @description: 关注动态(Feed 流)，发布时推送到粉丝的收件箱，阅读时按时间戳游标滚动分页
+ */
+public interface IFeedService {
+
+    /**
+     * 异步把新笔记推送到作者所有粉丝的收件箱
+     * @param blog 刚发布的笔记
+     */
+    void publish(Blog blog);
+
+    /**
+     * 滚动查询当前用户收件箱
+     * @param max 上一页最小的时间戳，第一页传当前时间
+     * @param offset 上一页中与最小时间戳相同的元素个数，第一页传 0
+     * @return ScrollResult
+     */
+    Result queryFeed(Long max, Integer offset);
+}
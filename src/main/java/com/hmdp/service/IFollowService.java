@@ -1,8 +1,11 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +16,63 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IFollowService extends IService<Follow> {
 
+    /**
+     * 关注 / 取关
+     * @param followUserId 被关注的用户 id
+     * @param isFollow true 关注，false 取关
+     * @return 无
+     */
+    Result follow(Long followUserId, Boolean isFollow);
+
+    /**
+     * 当前用户是否关注了某人
+     * @param followUserId 被关注的用户 id
+     * @return true / false
+     */
+    Result isFollow(Long followUserId);
+
+    /**
+     * 查询当前用户和某人的共同关注
+     * @param id 对方的用户 id
+     * @return 用户列表
+     */
+    Result queryCommonFollows(Long id);
+
+    /**
+     * 查询某人的关注数和粉丝数
+     * @param id 用户 id
+     * @return following：关注数，followers：粉丝数
+     */
+    Result queryFollowCount(Long id);
+
+    /**
+     * 按关注记录 id 游标分批查询某人的粉丝
+     * @param userId 用户 id
+     * @param lastId 上一批最后一条关注记录的 id，第一批传 0
+     * @param size 每批数量
+     * @return 关注记录，只包含 id 和 userId
+     */
+    List<Follow> queryFollowers(Long userId, Long lastId, int size);
+
+    /**
+     * 查询某人关注的所有用户 id
+     * @param userId 用户 id
+     * @return 被关注的用户 id
+     */
+    List<Long> queryFollowingIds(Long userId);
+
+    /**
+     * 确保某人的关注集合已经加载到 Redis，返回它的键，便于和其它集合求交集
+     * 集合中包含占位成员 FOLLOWS_PLACEHOLDER，使用时需要排除
+     * @param userId 用户 id
+     * @return Redis 键
+     */
+    String followingSetKey(Long userId);
+
+    /**
+     * 统计某人的粉丝数
+     * @param userId 用户 id
+     * @return 粉丝数
+     */
+    long countFollowers(Long userId);
 }
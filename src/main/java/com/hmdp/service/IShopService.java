@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -21,10 +23,44 @@ public interface IShopService extends IService<Shop> {
      */
     Result queryById(Long id);
 
+    /**
+     * queryById 的异步版本：缓存命中时全程使用 Redis 异步命令，不阻塞任何线程；未命中或逻辑过期时交给线程池走同步逻辑
+     * @param id 商铺id
+     * @return 商铺详情数据
+     */
+    CompletableFuture<Result> queryByIdAsync(Long id);
+
     /**
      * 更新商铺信息
      * @param shop 店铺实体
      * @return 店铺详情数据
      */
     Result update(Shop shop);
+
+    /**
+     * 新增商铺信息，同时写入按类型划分的 GEO 集合
+     * @param shop 店铺实体
+     * @return 店铺id
+     */
+    Result saveShop(Shop shop);
+
+    /**
+     * 根据商铺类型分页查询商铺信息，带坐标时按距离由近到远排序
+     * 不带坐标但传了 lastId 时按 id 滚动查询
+     * @param typeId 商铺类型
+     * @param current 页码
+     * @param x 经度
+     * @param y 纬度
+     * @param lastId 上一页最后一家店铺的 id，0 表示第一页
+     * @return 商铺列表，滚动查询返回 ScrollResult
+     */
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y, Long lastId);
+
+    /**
+     * 根据商铺名称关键字分页查询商铺信息，按评分、销量排序
+     * @param name 商铺名称关键字
+     * @param current 页码
+     * @return 商铺列表
+     */
+    Result queryShopByName(String name, Integer current);
 }
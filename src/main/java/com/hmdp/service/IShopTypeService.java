@@ -13,4 +13,14 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {
 
+    /**
+     * 店铺类型在 ReferenceDataCache 中注册的名称
+     */
+    String REFERENCE_NAME = "shop-type";
+
+    /**
+     * 查询店铺类型列表，返回预先序列化好的响应体
+     * @return Result.ok(list) 的 JSON 字节
+     */
+    byte[] queryTypeListJson();
 }
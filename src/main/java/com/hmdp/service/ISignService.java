@@ -0,0 +1,36 @@
+package com.hmdp.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Sign;
+
+import java.time.YearMonth;
+
+/**
+ * <p>
+ *  服务类
+ * </p>
+ *
+ * @author 虎哥
+ * @since 2021-12-22
+ */
+public interface ISignService extends IService<Sign> {
+
+    /**
+     * 当前用户今日签到
+     * @return 无
+     */
+    Result sign();
+
+    /**
+     * 查询当前用户的连续签到天数和本月签到天数
+     * @return SignStatsDTO
+     */
+    Result signStats();
+
+    /**
+     * 把某个月所有用户的签到位图归档到数据库
+     * @param month 归档的月份
+     */
+    void archive(YearMonth month);
+}
@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -20,4 +23,18 @@ public interface IUserService extends IService<User> {
     Result sendCode(String phone, HttpSession session);
 
     Result login(LoginFormDTO loginForm, HttpSession session);
+
+    /**
+     * 登出，删除 Redis 中的会话并通知所有节点清掉本地会话缓存
+     * @param token 登录令牌
+     * @return 无
+     */
+    Result logout(String token);
+
+    /**
+     * 批量查询用户的昵称和头像(走缓存)
+     * @param userIds 用户 id
+     * @return 用户 id -> 用户信息，不存在的用户不会出现在结果中
+     */
+    Map<Long, UserDTO> queryUserDTOsByIds(List<Long> userIds);
 }
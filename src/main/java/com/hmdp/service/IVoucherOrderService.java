@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,12 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
+    /**
+     * 秒杀的异步版本：下单要查库、开事务，放到有界线程池里执行，不占用 Tomcat 的线程，线程池排满直接返回繁忙
+     * @param voucherId 优惠券id
+     * @return 订单id
+     */
+    CompletableFuture<Result> seckillVoucherAsync(Long voucherId);
+
     Result createVoucherOrder(Long voucherId);
 }
@@ -1,15 +1,33 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CounterType;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.WriteBehindCounter;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.SystemConstants.MAX_PAGE_SIZE;
+
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 两级评论：一级评论 parent_id = 0，回复的 parent_id 指向所属的一级评论，answer_id 指向被回复的那条
+ * 所有查询都是 (blog_id, parent_id, id) 索引上的 id 游标查询，评论再多每页的代价也是固定的
+ * 评论数和点赞数一样先累加在 Redis 里，由 WriteBehindCounter 定时批量写回 tb_blog.comments
  *
  * @author 虎哥
  * @since 2021-12-22
@@ -17,4 +35,128 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    /**
+     * 每条一级评论下展示的回复数
+     */
+    private static final int REPLIES_TOP_N = 3;
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Resource
+    private WriteBehindCounter writeBehindCounter;
+
+    @Override
+    public Result saveComment(BlogComments comment) {
+        if (comment.getBlogId() == null || StrUtil.isBlank(comment.getContent())) {
+            return Result.fail("评论内容不能为空");
+        }
+        // 1. 笔记必须存在
+        if (blogService.query().eq("id", comment.getBlogId()).count() == 0) {
+            return Result.fail("笔记不存在");
+        }
+        long parentId = comment.getParentId() == null ? 0L : comment.getParentId();
+        long answerId = comment.getAnswerId() == null ? parentId : comment.getAnswerId();
+        if (parentId == 0) {
+            // 2. 一级评论不回复任何人
+            if (answerId != 0) {
+                return Result.fail("回复的评论不存在");
+            }
+        } else {
+            // 3. 回复必须挂在同一篇笔记的一级评论下，被回复的那条也必须在这个一级评论的楼里
+            BlogComments parent = getById(parentId);
+            if (parent == null || parent.getParentId() != 0 || !parent.getBlogId().equals(comment.getBlogId())) {
+                return Result.fail("回复的评论不存在");
+            }
+            if (answerId != parentId) {
+                BlogComments answer = getById(answerId);
+                if (answer == null || answer.getParentId() != parentId || !answer.getBlogId().equals(comment.getBlogId())) {
+                    return Result.fail("回复的评论不存在");
+                }
+            }
+        }
+        // 4. 写入数据库
+        comment.setId(null);
+        comment.setUserId(UserHolder.getUser().getId());
+        comment.setParentId(parentId);
+        comment.setAnswerId(answerId);
+        comment.setLiked(0);
+        comment.setStatus(false);
+        save(comment);
+        // 5. 评论数增量记在 Redis，定时批量写回
+        writeBehindCounter.incr(CounterType.BLOG_COMMENTS, comment.getBlogId(), 1);
+        return Result.ok(comment.getId());
+    }
+
+    @Override
+    public Result queryComments(Long blogId, Long lastId) {
+        // 1. 一级评论 WHERE blog_id = ? AND parent_id = 0 AND id < lastId ORDER BY id DESC LIMIT size
+        List<BlogComments> comments = query()
+                .eq("blog_id", blogId)
+                .eq("parent_id", 0)
+                .lt(lastId != null && lastId > 0, "id", lastId)
+                .orderByDesc("id")
+                .last("LIMIT " + MAX_PAGE_SIZE)
+                .list();
+        ScrollResult r = new ScrollResult();
+        r.setList(comments);
+        r.setLastId(comments.isEmpty() ? lastId : comments.get(comments.size() - 1).getId());
+        if (comments.isEmpty()) {
+            return Result.ok(r);
+        }
+        // 2. 一条 SQL 查出每条一级评论的前 N 条回复
+        List<Long> parentIds = comments.stream().map(BlogComments::getId).collect(Collectors.toList());
+        List<BlogComments> replies = getBaseMapper().queryTopReplies(blogId, parentIds, REPLIES_TOP_N);
+        Map<Long, List<BlogComments>> replyMap = replies.stream()
+                .collect(Collectors.groupingBy(BlogComments::getParentId));
+        comments.forEach(comment ->
+                comment.setReplies(replyMap.getOrDefault(comment.getId(), Collections.emptyList())));
+        // 3. 评论人和回复人一起批量查询
+        List<BlogComments> all = new ArrayList<>(comments);
+        all.addAll(replies);
+        fillUsers(all);
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result queryReplies(Long parentId, Long lastId) {
+        // WHERE blog_id = ? AND parent_id = ? AND id > lastId ORDER BY id LIMIT size，带上 blog_id 才能用上索引
+        BlogComments parent = getById(parentId);
+        if (parent == null) {
+            return Result.fail("评论不存在");
+        }
+        List<BlogComments> replies = query()
+                .eq("blog_id", parent.getBlogId())
+                .eq("parent_id", parentId)
+                .gt(lastId != null && lastId > 0, "id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + MAX_PAGE_SIZE)
+                .list();
+        fillUsers(replies);
+        ScrollResult r = new ScrollResult();
+        r.setList(replies);
+        r.setLastId(replies.isEmpty() ? lastId : replies.get(replies.size() - 1).getId());
+        return Result.ok(r);
+    }
+
+    /**
+     * 批量补全评论人的昵称和头像(走用户缓存)
+     */
+    private void fillUsers(List<BlogComments> comments) {
+        if (comments.isEmpty()) {
+            return;
+        }
+        List<Long> userIds = comments.stream().map(BlogComments::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOsByIds(userIds);
+        for (BlogComments comment : comments) {
+            UserDTO user = users.get(comment.getUserId());
+            if (user != null) {
+                comment.setName(user.getNickName());
+                comment.setIcon(user.getIcon());
+            }
+        }
+    }
 }
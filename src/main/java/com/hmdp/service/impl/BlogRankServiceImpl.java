@@ -0,0 +1,208 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.entity.Blog;
+import com.hmdp.service.IBlogRankService;
+import com.hmdp.service.IBlogService;
+import com.hmdp.utils.AsyncRedis;
+import io.lettuce.core.Limit;
+import io.lettuce.core.Range;
+import io.lettuce.core.ScoredValue;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisIdWorker.BEGIN_TIMESTAMP;
+
+/**
+ * @author codeep
+ * @date 2023/8/14 9:55
+ * @description: 热门笔记排行
+ * 热度 = 发布时间(秒) / HOT_DECAY_SECONDS + 点赞数 * LIKE_WEIGHT
+ * 时间衰减不需要定时重算所有人的分数：新笔记的时间项天然更大，相当于旧笔记在不断衰减，点赞只需要 ZINCRBY
+ */
+@Slf4j
+@Service
+public class BlogRankServiceImpl implements IBlogRankService {
+
+    /**
+     * 一个点赞相当于晚发布半小时
+     */
+    private static final long HOT_DECAY_SECONDS = 1800L;
+
+    /**
+     * 排行只保留前这么多篇，翻页再深也就这么多
+     */
+    private static final int HOT_CAPACITY = 1000;
+
+    private static final int LOAD_BATCH_SIZE = 500;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Lazy
+    @Resource
+    private IBlogService blogService;
+
+    @Resource
+    private AsyncRedis asyncRedis;
+
+    @Override
+    public void add(Blog blog) {
+        stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, blog.getId().toString(), score(blog));
+    }
+
+    @Override
+    public List<Long> queryPage(int current, int size) {
+        // 页码小于 1 算出来是负下标，ZREVRANGE 会返回排行末尾的数据
+        if (current < 1 || size <= 0) {
+            return Collections.emptyList();
+        }
+        long start = (long) (current - 1) * size;
+        Set<String> ids = stringRedisTemplate.opsForZSet().reverseRange(BLOG_HOT_KEY, start, start + size - 1);
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return ids.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    @Override
+    public ScrollResult queryScroll(Double max, int offset, int size) {
+        double maxScore = max == null ? Double.POSITIVE_INFINITY : max;
+        // ZREVRANGEBYSCORE blog:hot max -inf WITHSCORES LIMIT offset size
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(BLOG_HOT_KEY, Double.NEGATIVE_INFINITY, maxScore, offset, size);
+        List<String> ids = new ArrayList<>();
+        List<Double> scores = new ArrayList<>();
+        if (tuples != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                ids.add(tuple.getValue());
+                scores.add(tuple.getScore());
+            }
+        }
+        return toScroll(ids, scores, max, offset);
+    }
+
+    @Override
+    public CompletableFuture<List<Long>> queryPageAsync(int current, int size) {
+        if (current < 1 || size <= 0) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        long start = (long) (current - 1) * size;
+        return asyncRedis.commands().zrevrange(BLOG_HOT_KEY, start, start + size - 1).toCompletableFuture()
+                .thenApply(ids -> ids.stream().map(Long::valueOf).collect(Collectors.toList()));
+    }
+
+    @Override
+    public CompletableFuture<ScrollResult> queryScrollAsync(Double max, int offset, int size) {
+        Range<Double> range = Range.from(Range.Boundary.unbounded(),
+                max == null ? Range.Boundary.unbounded() : Range.Boundary.including(max));
+        return asyncRedis.commands()
+                .zrevrangebyscoreWithScores(BLOG_HOT_KEY, range, Limit.create(offset, size)).toCompletableFuture()
+                .thenApply(values -> {
+                    List<String> ids = new ArrayList<>(values.size());
+                    List<Double> scores = new ArrayList<>(values.size());
+                    for (ScoredValue<String> value : values) {
+                        ids.add(value.getValue());
+                        scores.add(value.getScore());
+                    }
+                    return toScroll(ids, scores, max, offset);
+                });
+    }
+
+    /**
+     * 由一页按热度倒序的 id 和热度生成滚动结果
+     */
+    private static ScrollResult toScroll(List<String> ids, List<Double> scores, Double max, int offset) {
+        double maxScore = max == null ? Double.POSITIVE_INFINITY : max;
+        ScrollResult r = new ScrollResult();
+        if (ids.isEmpty()) {
+            r.setList(Collections.emptyList());
+            r.setMinScore(max);
+            r.setOffset(offset);
+            return r;
+        }
+        // 统计本页最小热度及其重复个数，作为下一页的游标
+        List<Long> list = new ArrayList<>(ids.size());
+        double minScore = maxScore;
+        int os = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            list.add(Long.valueOf(ids.get(i)));
+            double score = scores.get(i);
+            if (score == minScore) {
+                os++;
+            } else {
+                minScore = score;
+                os = 1;
+            }
+        }
+        // 本页最小热度仍然等于 max，说明还在同一批相同热度里，偏移量要累加
+        if (minScore == maxScore) {
+            os += offset;
+        }
+        r.setList(list);
+        r.setMinScore(minScore);
+        r.setOffset(os);
+        return r;
+    }
+
+    /**
+     * 启动时排行为空则从数据库全量导入，按 id 游标分批查询，只查需要的列
+     */
+    @PostConstruct
+    public void init() {
+        Long size = stringRedisTemplate.opsForZSet().zCard(BLOG_HOT_KEY);
+        if (size != null && size > 0) {
+            return;
+        }
+        long lastId = 0;
+        int total = 0;
+        while (true) {
+            List<Blog> blogs = blogService.query()
+                    .select("id", "liked", "create_time")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + LOAD_BATCH_SIZE)
+                    .list();
+            if (blogs.isEmpty()) {
+                break;
+            }
+            Set<ZSetOperations.TypedTuple<String>> tuples = blogs.stream()
+                    .map(blog -> new DefaultTypedTuple<>(blog.getId().toString(), score(blog)))
+                    .collect(Collectors.toSet());
+            stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, tuples);
+            total += blogs.size();
+            lastId = blogs.get(blogs.size() - 1).getId();
+        }
+        trim();
+        log.debug("热门笔记排行初始化完成，共导入 {} 篇", total);
+    }
+
+    /**
+     * 定时裁剪排行，只保留前 HOT_CAPACITY 篇
+     */
+    @Scheduled(fixedDelay = 60_000L)
+    public void trim() {
+        stringRedisTemplate.opsForZSet().removeRange(BLOG_HOT_KEY, 0, -HOT_CAPACITY - 1);
+    }
+
+    private static double score(Blog blog) {
+        LocalDateTime createTime = blog.getCreateTime() == null ? LocalDateTime.now() : blog.getCreateTime();
+        long seconds = createTime.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+        return (double) seconds / HOT_DECAY_SECONDS + liked * LIKE_WEIGHT;
+    }
+}
@@ -1,11 +1,48 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.config.AsyncConfig;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
+import com.hmdp.service.IBlogRankService;
 import com.hmdp.service.IBlogService;
+import com.hmdp.service.IFeedService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.AsyncRedis;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CounterType;
+import com.hmdp.utils.RequestContext;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.WriteBehindCounter;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.MAX_PAGE_SIZE;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +51,328 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private AsyncRedis asyncRedis;
+
+    @Resource(name = AsyncConfig.ASYNC_REQUEST_EXECUTOR)
+    private ThreadPoolTaskExecutor asyncRequestExecutor;
+
+    @Resource
+    private IBlogRankService blogRankService;
+
+    @Resource
+    private IFeedService feedService;
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("blog_like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 点赞排行榜展示的人数
+     */
+    private static final int LIKES_TOP_N = 5;
+
+    @Override
+    public Result saveBlog(Blog blog) {
+        // 1. 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        // 2. 保存探店博文
+        save(blog);
+        // 3. 加入热门排行，刚发布的笔记 createTime 由数据库生成，这里为空时按当前时间算
+        blogRankService.add(blog);
+        // 4. 异步推送到粉丝的收件箱
+        feedService.publish(blog);
+        // 5. 返回id
+        return Result.ok(blog.getId());
+    }
+
+    @Override
+    public Result queryHotBlog(Integer current) {
+        // 1. 从排行中取当前页的 id
+        List<Long> ids = blogRankService.queryPage(current, MAX_PAGE_SIZE);
+        // 2. 批量补全笔记内容、作者、点赞信息
+        return Result.ok(queryBlogsByIds(ids));
+    }
+
+    @Override
+    public Result queryHotBlogScroll(Double max, Integer offset) {
+        // 1. 从排行中按热度游标取一页 id
+        ScrollResult r = blogRankService.queryScroll(max, offset, MAX_PAGE_SIZE);
+        // 2. 批量补全笔记内容、作者、点赞信息
+        @SuppressWarnings("unchecked")
+        List<Long> ids = (List<Long>) r.getList();
+        r.setList(queryBlogsByIds(ids));
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result queryMyBlog(Integer current, Long lastId) {
+        // 获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        if (lastId == null) {
+            // 按页码查询，前端不需要总数，不发 COUNT 查询；和滚动查询一样按 id 倒序，两种翻页方式看到的顺序一致
+            Page<Blog> page = query()
+                    .eq("user_id", userId)
+                    .orderByDesc("id")
+                    .page(new Page<>(current, MAX_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        // 按 id 倒序滚动查询 WHERE user_id = ? AND id < lastId ORDER BY id DESC LIMIT size，走 (user_id, id) 索引
+        List<Blog> blogs = query()
+                .eq("user_id", userId)
+                .lt(lastId > 0, "id", lastId)
+                .orderByDesc("id")
+                .last("LIMIT " + MAX_PAGE_SIZE)
+                .list();
+        ScrollResult r = new ScrollResult();
+        r.setList(blogs);
+        r.setLastId(blogs.isEmpty() ? lastId : blogs.get(blogs.size() - 1).getId());
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result queryBlogById(Long id) {
+        List<Blog> blogs = queryBlogsByIds(Collections.singletonList(id));
+        if (blogs.isEmpty()) {
+            return Result.fail("笔记不存在");
+        }
+        return Result.ok(blogs.get(0));
+    }
+
+    /**
+     * 按给定顺序批量查询笔记，并补全作者昵称头像、点赞数、评论数和当前用户是否点过赞
+     * 笔记和作者都走批量缓存(MGET)，点赞相关的数据用一次管道查询，整个过程固定几次 Redis 往返，稳定状态下不查数据库
+     * @param ids 笔记 id
+     * @return 笔记列表，不存在的笔记会被跳过
+     */
+    @Override
+    public List<Blog> queryBlogsByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1. 批量查询笔记
+        Map<Long, Blog> blogMap = cacheClient.queryBatchWithPassThrough(
+                CACHE_BLOG_KEY, ids, Blog.class,
+                misses -> listByIds(misses).stream().collect(Collectors.toMap(Blog::getId, Function.identity())),
+                CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        List<Blog> blogs = ids.stream().map(blogMap::get).filter(Objects::nonNull).collect(Collectors.toList());
+        if (blogs.isEmpty()) {
+            return blogs;
+        }
+        // 2. 批量查询作者
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOsByIds(userIds);
+        // 3. 一次管道查询：尚未写回数据库的点赞数、评论数增量 + 当前用户是否点过赞
+        List<String> blogIds = blogs.stream().map(blog -> blog.getId().toString()).collect(Collectors.toList());
+        UserDTO user = UserHolder.getUser();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            String[] fields = blogIds.toArray(new String[0]);
+            WriteBehindCounter.queuePending(conn, CounterType.BLOG_LIKED, fields);
+            WriteBehindCounter.queuePending(conn, CounterType.BLOG_COMMENTS, fields);
+            if (user != null) {
+                for (String blogId : blogIds) {
+                    conn.zScore(BLOG_LIKED_KEY + blogId, user.getId().toString());
+                }
+            }
+            return null;
+        });
+        long[] likedPending = WriteBehindCounter.sumPending(results, 0, blogs.size());
+        long[] commentsPending = WriteBehindCounter.sumPending(results, 2, blogs.size());
+        boolean[] isLike = null;
+        if (user != null) {
+            isLike = new boolean[blogs.size()];
+            for (int i = 0; i < blogs.size(); i++) {
+                isLike[i] = results.get(4 + i) != null;
+            }
+        }
+        fillBlogs(blogs, users, likedPending, commentsPending, isLike);
+        return blogs;
+    }
+
+    @Override
+    public CompletableFuture<Result> queryHotBlogAsync(Integer current) {
+        // 请求上下文要在请求线程上取，回调在 Lettuce 的 IO 线程上执行
+        RequestContext context = RequestContext.current();
+        return blogRankService.queryPageAsync(current, MAX_PAGE_SIZE)
+                .thenCompose(ids -> queryBlogsByIdsAsync(ids, context))
+                .thenApply(Result::ok)
+                .exceptionally(BlogServiceImpl::busyOrRethrow);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Result> queryHotBlogScrollAsync(Double max, Integer offset) {
+        RequestContext context = RequestContext.current();
+        return blogRankService.queryScrollAsync(max, offset == null ? 0 : offset, MAX_PAGE_SIZE)
+                .thenCompose(r -> queryBlogsByIdsAsync((List<Long>) r.getList(), context).thenApply(blogs -> {
+                    r.setList(blogs);
+                    return Result.ok(r);
+                }))
+                .exceptionally(BlogServiceImpl::busyOrRethrow);
+    }
+
+    /**
+     * 缓存未命中时线程池满了会拒绝，和秒杀一样返回系统繁忙，而不是 500
+     */
+    private static Result busyOrRethrow(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof RejectedExecutionException) {
+            return Result.fail("系统繁忙，请稍后再试");
+        }
+        throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+    }
+
+    /**
+     * queryBlogsByIds 的异步版本，缓存格式和同步版本一致
+     * 1. 一次 MGET 取笔记缓存
+     * 2. 作者缓存的 MGET、点赞数评论数增量的 HMGET、是否点过赞的 ZSCORE 同时发出
+     * 任何一个笔记或作者缓存未命中(需要查库)，就把整页交给线程池走同步的 queryBlogsByIds
+     */
+    private CompletableFuture<List<Blog>> queryBlogsByIdsAsync(List<Long> ids, RequestContext context) {
+        if (ids.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        UserDTO user = context == null ? null : context.getUser();
+        RedisAsyncCommands<String, String> redis = asyncRedis.commands();
+        String[] blogKeys = ids.stream().map(id -> CACHE_BLOG_KEY + id).toArray(String[]::new);
+        return redis.mget(blogKeys).toCompletableFuture().thenCompose(values -> {
+            List<Blog> blogs = new ArrayList<>(ids.size());
+            for (KeyValue<String, String> value : values) {
+                if (!value.hasValue()) {
+                    return queryBlogsByIdsOnExecutor(ids, context);
+                }
+                // 空字符串是缓存的空值，说明笔记不存在
+                if (StrUtil.isNotBlank(value.getValue())) {
+                    blogs.add(JSONUtil.toBean(value.getValue(), Blog.class));
+                }
+            }
+            if (blogs.isEmpty()) {
+                return CompletableFuture.completedFuture(blogs);
+            }
+            String[] userKeys = blogs.stream().map(Blog::getUserId).distinct()
+                    .map(id -> CACHE_USER_KEY + id).toArray(String[]::new);
+            String[] fields = blogs.stream().map(blog -> blog.getId().toString()).toArray(String[]::new);
+            CompletableFuture<List<KeyValue<String, String>>> authors = redis.mget(userKeys).toCompletableFuture();
+            List<CompletableFuture<List<KeyValue<String, String>>>> pending = Arrays.asList(
+                    redis.hmget(CounterType.BLOG_LIKED.getDeltaKey(), fields).toCompletableFuture(),
+                    redis.hmget(CounterType.BLOG_LIKED.getFlushingKey(), fields).toCompletableFuture(),
+                    redis.hmget(CounterType.BLOG_COMMENTS.getDeltaKey(), fields).toCompletableFuture(),
+                    redis.hmget(CounterType.BLOG_COMMENTS.getFlushingKey(), fields).toCompletableFuture());
+            List<CompletableFuture<Double>> likes = new ArrayList<>();
+            if (user != null) {
+                for (String field : fields) {
+                    likes.add(redis.zscore(BLOG_LIKED_KEY + field, user.getId().toString()).toCompletableFuture());
+                }
+            }
+            List<CompletableFuture<?>> all = new ArrayList<>(pending);
+            all.add(authors);
+            all.addAll(likes);
+            return CompletableFuture.allOf(all.toArray(new CompletableFuture[0])).thenCompose(v -> {
+                Map<Long, UserDTO> users = new HashMap<>(userKeys.length * 2);
+                for (KeyValue<String, String> value : authors.join()) {
+                    if (!value.hasValue()) {
+                        return queryBlogsByIdsOnExecutor(ids, context);
+                    }
+                    if (StrUtil.isNotBlank(value.getValue())) {
+                        UserDTO author = JSONUtil.toBean(value.getValue(), UserDTO.class);
+                        users.put(author.getId(), author);
+                    }
+                }
+                long[] likedPending = sumPending(pending.get(0).join(), pending.get(1).join());
+                long[] commentsPending = sumPending(pending.get(2).join(), pending.get(3).join());
+                boolean[] isLike = null;
+                if (user != null) {
+                    isLike = new boolean[likes.size()];
+                    for (int i = 0; i < likes.size(); i++) {
+                        isLike[i] = likes.get(i).join() != null;
+                    }
+                }
+                fillBlogs(blogs, users, likedPending, commentsPending, isLike);
+                return CompletableFuture.completedFuture(blogs);
+            });
+        });
+    }
+
+    /**
+     * 缓存未命中需要查库，不能在 Lettuce 的 IO 线程上阻塞，交给线程池
+     * 提交发生在 IO 线程上，线程池的 TaskDecorator 捕获不到请求上下文，这里显式带上请求线程取得的上下文
+     */
+    private CompletableFuture<List<Blog>> queryBlogsByIdsOnExecutor(List<Long> ids, RequestContext context) {
+        return CompletableFuture.supplyAsync(RequestContext.wrapSupplier(context, () -> queryBlogsByIds(ids)), asyncRequestExecutor);
+    }
+
+    private static long[] sumPending(List<KeyValue<String, String>> deltas, List<KeyValue<String, String>> flushing) {
+        long[] sums = new long[deltas.size()];
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = Long.parseLong(deltas.get(i).getValueOrElse("0")) + Long.parseLong(flushing.get(i).getValueOrElse("0"));
+        }
+        return sums;
+    }
+
+    /**
+     * 补全作者昵称头像、点赞数、评论数和当前用户是否点过赞
+     * @param isLike 未登录时为 null
+     */
+    private static void fillBlogs(List<Blog> blogs, Map<Long, UserDTO> users,
+                                  long[] likedPending, long[] commentsPending, boolean[] isLike) {
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            UserDTO author = users.get(blog.getUserId());
+            if (author != null) {
+                blog.setName(author.getNickName());
+                blog.setIcon(author.getIcon());
+            }
+            blog.setLiked(WriteBehindCounter.merge(blog.getLiked(), likedPending[i]));
+            blog.setComments(WriteBehindCounter.merge(blog.getComments(), commentsPending[i]));
+            if (isLike != null) {
+                blog.setIsLike(isLike[i]);
+            }
+        }
+    }
+
+    @Override
+    public Result likeBlog(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        // 判断是否点过赞、修改 zset、记录点赞数增量在一个脚本里原子完成，连点也不会重复计数
+        // 点赞数不再逐条 update 数据库，而是由 WriteBehindCounter 定时批量写回
+        stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_KEY + id, CounterType.BLOG_LIKED.getDeltaKey(), BLOG_HOT_KEY),
+                userId.toString(), String.valueOf(System.currentTimeMillis()), id.toString(),
+                String.valueOf(IBlogRankService.LIKE_WEIGHT));
+        return Result.ok();
+    }
+
+    @Override
+    public Result queryBlogLikes(Long id) {
+        // 1. 按点赞时间查询前 N 名 zrange key 0 4
+        Set<String> top = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_KEY + id, 0, LIKES_TOP_N - 1);
+        if (top == null || top.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 2. 批量查询用户(走缓存)，按 zset 的顺序排列
+        List<Long> ids = top.stream().map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOsByIds(ids);
+        List<UserDTO> userDTOS = ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList());
+        return Result.ok(userDTOS);
+    }
 }
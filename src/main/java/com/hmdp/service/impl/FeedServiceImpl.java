@@ -0,0 +1,206 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IFeedService;
+import com.hmdp.service.IFollowService;
+import com.hmdp.utils.ContextThreadPoolExecutor;
+import com.hmdp.utils.ScrollMerger;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.DEFAULT_PAGE_SIZE;
+
+/**
+ * @author codeep
+ * @date 2023/8/15 10:35
+ * @description: 推拉结合的 Feed 流
+ * 收件箱(feed:{userId})和发件箱(feed:out:{authorId})都是 zset：博客 id -> 发布时间戳，只保留最新的 FEED_CAPACITY 条
+ * 普通作者发布时推送到所有粉丝的收件箱；粉丝数超过 FEED_PUSH_THRESHOLD 的大 V 只写自己的发件箱，
+ * 读者阅读时再把关注的大 V 发件箱拉过来和自己的收件箱归并，这样发布和阅读的开销都有上限
+ */
+@Slf4j
+@Service
+public class FeedServiceImpl implements IFeedService {
+
+    /**
+     * 每批推送的粉丝数，一批用一次管道写入
+     */
+    private static final int PUSH_BATCH_SIZE = 500;
+
+    /**
+     * 推送线程池，队列满了不能在发布笔记的请求线程上推送(那正是推拉结合要省掉的开销)，拒绝后由 publish 改为拉模式
+     */
+    private static final ThreadPoolExecutor FEED_PUSH_EXECUTOR = new ContextThreadPoolExecutor(
+            2,
+            4,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(1000),
+            Executors.defaultThreadFactory(),
+            new ThreadPoolExecutor.AbortPolicy()
+    );
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IFollowService followService;
+
+    @Lazy
+    @Resource
+    private IBlogService blogService;
+
+    @Override
+    public void publish(Blog blog) {
+        Long authorId = blog.getUserId();
+        String blogId = blog.getId().toString();
+        long timestamp = blog.getCreateTime() == null
+                ? System.currentTimeMillis()
+                : blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        try {
+            FEED_PUSH_EXECUTOR.execute(() -> {
+                try {
+                    // 1. 所有作者都写自己的发件箱，只是一次 ZADD
+                    writeOutbox(authorId, blogId, timestamp);
+                    // 2. 大 V 不推送，由粉丝阅读时拉取；一旦成为大 V 就不再移出，否则之前只在发件箱里的笔记会从粉丝的 Feed 中消失
+                    if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FEED_BIG_AUTHORS_KEY, authorId.toString()))) {
+                        return;
+                    }
+                    if (followService.countFollowers(authorId) > FEED_PUSH_THRESHOLD) {
+                        stringRedisTemplate.opsForSet().add(FEED_BIG_AUTHORS_KEY, authorId.toString());
+                        return;
+                    }
+                    // 3. 普通作者推送到粉丝收件箱
+                    pushToFollowers(authorId, blogId, timestamp);
+                } catch (Exception e) {
+                    log.error("推送笔记到粉丝收件箱失败，blogId：{}", blogId, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 4. 推送积压时不推送，只写发件箱并把作者转为拉模式(和大 V 一样不再移出)，粉丝阅读时会归并作者的发件箱
+            log.warn("推送队列已满，笔记改由粉丝拉取，authorId：{}，blogId：{}", authorId, blogId);
+            try {
+                writeOutbox(authorId, blogId, timestamp);
+                stringRedisTemplate.opsForSet().add(FEED_BIG_AUTHORS_KEY, authorId.toString());
+            } catch (Exception ex) {
+                log.error("写入发件箱失败，blogId：{}", blogId, ex);
+            }
+        }
+    }
+
+    /**
+     * 写入作者的发件箱，只保留最新的 FEED_CAPACITY 条
+     */
+    private void writeOutbox(Long authorId, String blogId, long timestamp) {
+        String outbox = FEED_OUTBOX_KEY + authorId;
+        stringRedisTemplate.opsForZSet().add(outbox, blogId, timestamp);
+        stringRedisTemplate.opsForZSet().removeRange(outbox, 0, -FEED_CAPACITY - 1);
+    }
+
+    /**
+     * 按关注记录 id 游标分批查询粉丝，每批用一次管道 ZADD 并裁剪收件箱
+     */
+    private void pushToFollowers(Long authorId, String blogId, long timestamp) {
+        long lastId = 0;
+        while (true) {
+            List<Follow> followers = followService.queryFollowers(authorId, lastId, PUSH_BATCH_SIZE);
+            if (followers.isEmpty()) {
+                return;
+            }
+            pushToInboxes(followers, blogId, timestamp);
+            if (followers.size() < PUSH_BATCH_SIZE) {
+                return;
+            }
+            lastId = followers.get(followers.size() - 1).getId();
+        }
+    }
+
+    private void pushToInboxes(List<Follow> followers, String blogId, long timestamp) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Follow follow : followers) {
+                String key = FEED_KEY + follow.getUserId();
+                conn.zAdd(key, timestamp, blogId);
+                // 只保留最新的 FEED_CAPACITY 条
+                conn.zRemRange(key, 0, -FEED_CAPACITY - 1);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Result queryFeed(Long max, Integer offset) {
+        Long userId = UserHolder.getUser().getId();
+        // 1. 需要拉取的来源：自己的收件箱 + 关注的大 V 的发件箱
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        queryFollowingBigAuthors(userId).forEach(authorId -> keys.add(FEED_OUTBOX_KEY + authorId));
+        // 2. 一次管道从每一路取 offset + size 条(相同时间戳要跳过 offset 条，最坏情况下一页都来自同一路)
+        long count = offset + DEFAULT_PAGE_SIZE;
+        List<Object> sources = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (String key : keys) {
+                    operations.opsForZSet().reverseRangeByScoreWithScores(key, 0, max, 0, count);
+                }
+                return null;
+            }
+        });
+        // 3. 多路归并出一页
+        @SuppressWarnings("unchecked")
+        List<Set<ZSetOperations.TypedTuple<String>>> tuples = (List<Set<ZSetOperations.TypedTuple<String>>>) (List<?>) sources;
+        ScrollResult r = ScrollMerger.merge(tuples, max, offset, DEFAULT_PAGE_SIZE);
+        @SuppressWarnings("unchecked")
+        List<Long> ids = (List<Long>) r.getList();
+        if (ids.isEmpty()) {
+            return Result.ok(emptyScroll(max));
+        }
+        // 4. 批量查询博客
+        r.setList(blogService.queryBlogsByIds(ids));
+        return Result.ok(r);
+    }
+
+    /**
+     * 查询某人关注的大 V：关注集合和大 V 集合求交集
+     */
+    private List<Long> queryFollowingBigAuthors(Long userId) {
+        Set<String> bigAuthors = stringRedisTemplate.opsForSet()
+                .intersect(followService.followingSetKey(userId), FEED_BIG_AUTHORS_KEY);
+        if (bigAuthors == null || bigAuthors.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(bigAuthors.size());
+        bigAuthors.forEach(id -> ids.add(Long.valueOf(id)));
+        return ids;
+    }
+
+    private static ScrollResult emptyScroll(Long max) {
+        ScrollResult r = new ScrollResult();
+        r.setList(Collections.emptyList());
+        r.setOffset(0);
+        r.setMinTime(max);
+        return r;
+    }
+}
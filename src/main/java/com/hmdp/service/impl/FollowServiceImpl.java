@@ -1,11 +1,27 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.UserHolder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +33,159 @@ import org.springframework.stereotype.Service;
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    private static final DefaultRedisScript<Long> FOLLOW_SCRIPT;
+
+    private static final DefaultRedisScript<Long> COUNT_INIT_SCRIPT;
+
+    static {
+        FOLLOW_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_SCRIPT.setLocation(new ClassPathResource("follow.lua"));
+        FOLLOW_SCRIPT.setResultType(Long.class);
+        COUNT_INIT_SCRIPT = new DefaultRedisScript<>();
+        COUNT_INIT_SCRIPT.setLocation(new ClassPathResource("follow_count_init.lua"));
+        COUNT_INIT_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final String FIELD_FOLLOWING = "following";
+    private static final String FIELD_FOLLOWERS = "followers";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IUserService userService;
+
+    @Override
+    public Result follow(Long followUserId, Boolean isFollow) {
+        Long userId = UserHolder.getUser().getId();
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己");
+        }
+        // 1. 判断是关注还是取关
+        boolean changed;
+        if (Boolean.TRUE.equals(isFollow)) {
+            // 2. 关注，(user_id, follow_user_id) 有唯一索引，重复关注直接插入失败，不用先查一次
+            Follow follow = new Follow();
+            follow.setUserId(userId);
+            follow.setFollowUserId(followUserId);
+            try {
+                changed = save(follow);
+            } catch (DuplicateKeyException e) {
+                changed = false;
+            }
+        } else {
+            // 3. 取关 delete from tb_follow where user_id = ? and follow_user_id = ?
+            changed = remove(new QueryWrapper<Follow>()
+                    .eq("user_id", userId).eq("follow_user_id", followUserId));
+        }
+        // 4. 数据库真的发生了变化才同步缓存，避免重复请求把计数加错
+        if (changed) {
+            stringRedisTemplate.execute(
+                    FOLLOW_SCRIPT,
+                    Arrays.asList(FOLLOWS_KEY + userId, FOLLOW_COUNT_KEY + userId, FOLLOW_COUNT_KEY + followUserId),
+                    followUserId.toString(), Boolean.TRUE.equals(isFollow) ? "1" : "-1");
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        String key = followingSetKey(userId);
+        return Result.ok(Boolean.TRUE.equals(
+                stringRedisTemplate.opsForSet().isMember(key, followUserId.toString())));
+    }
+
+    @Override
+    public Result queryCommonFollows(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        // 1. 求两个关注集合的交集
+        Set<String> intersect = stringRedisTemplate.opsForSet()
+                .intersect(followingSetKey(userId), followingSetKey(id));
+        if (intersect == null) {
+            return Result.ok(Collections.emptyList());
+        }
+        intersect.remove(FOLLOWS_PLACEHOLDER);
+        if (intersect.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 2. 批量查询用户
+        List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOsByIds(ids);
+        return Result.ok(ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList()));
+    }
+
+    @Override
+    public Result queryFollowCount(Long id) {
+        Map<String, Long> count = new HashMap<>(4);
+        count.put(FIELD_FOLLOWING, countFollowing(id));
+        count.put(FIELD_FOLLOWERS, countFollowers(id));
+        return Result.ok(count);
+    }
+
+    @Override
+    public List<Follow> queryFollowers(Long userId, Long lastId, int size) {
+        return query()
+                .select("id", "user_id")
+                .eq("follow_user_id", userId)
+                .gt("id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + size)
+                .list();
+    }
+
+    @Override
+    public List<Long> queryFollowingIds(Long userId) {
+        Set<String> members = stringRedisTemplate.opsForSet().members(followingSetKey(userId));
+        if (members == null) {
+            return Collections.emptyList();
+        }
+        return members.stream()
+                .filter(member -> !FOLLOWS_PLACEHOLDER.equals(member))
+                .map(Long::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public String followingSetKey(Long userId) {
+        String key = FOLLOWS_KEY + userId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return key;
+        }
+        // 未加载则从数据库全量加载，带上占位成员，没有关注任何人时键也存在
+        List<String> ids = query()
+                .select("follow_user_id")
+                .eq("user_id", userId)
+                .list()
+                .stream().map(follow -> follow.getFollowUserId().toString()).collect(Collectors.toList());
+        ids.add(FOLLOWS_PLACEHOLDER);
+        stringRedisTemplate.opsForSet().add(key, ids.toArray(new String[0]));
+        stringRedisTemplate.expire(key, FOLLOW_CACHE_TTL, TimeUnit.DAYS);
+        return key;
+    }
+
+    @Override
+    public long countFollowers(Long userId) {
+        return count(userId, FIELD_FOLLOWERS, "follow_user_id");
+    }
+
+    private long countFollowing(Long userId) {
+        return count(userId, FIELD_FOLLOWING, "user_id");
+    }
+
+    /**
+     * 读取缓存的计数，未加载的字段用 COUNT(*) 初始化(有索引)
+     * 初始化用脚本完成：字段已存在就不覆盖已经累加过的值；查库和写入之间提交的关注会漏掉，所以初始化后的计数只保留 FOLLOW_COUNT_SEED_TTL
+     */
+    private long count(Long userId, String field, String column) {
+        String key = FOLLOW_COUNT_KEY + userId;
+        Object cached = stringRedisTemplate.opsForHash().get(key, field);
+        if (cached != null) {
+            return Long.parseLong(cached.toString());
+        }
+        long count = query().eq(column, userId).count();
+        Long result = stringRedisTemplate.execute(COUNT_INIT_SCRIPT, Collections.singletonList(key),
+                field, String.valueOf(count), FOLLOW_COUNT_SEED_TTL.toString());
+        return result == null ? count : result;
+    }
 }
@@ -1,25 +1,56 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.hmdp.config.AsyncConfig;
+import com.hmdp.utils.AsyncRedis;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ContextThreadPoolExecutor;
+import com.hmdp.utils.CounterType;
+import com.hmdp.utils.ILock;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.RequestContext;
+import com.hmdp.utils.RedisReadWriteLock;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.WriteBehindCounter;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import java.time.LocalDateTime;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -31,6 +62,7 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
@@ -40,6 +72,33 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Resource
+    private WriteBehindCounter writeBehindCounter;
+
+    @Resource
+    private AsyncRedis asyncRedis;
+
+    @Resource(name = AsyncConfig.ASYNC_REQUEST_EXECUTOR)
+    private ThreadPoolTaskExecutor asyncRequestExecutor;
+
+    /**
+     * 启动时导入 GEO 数据时每批查询的店铺数量
+     */
+    private static final int GEO_LOAD_BATCH_SIZE = 1000;
+
+    private static final String GEO_SOURCE_LOCAL = "local";
+
+    /**
+     * 附近商铺的查询来源：redis 为 Redis GEO 集合(不可用时降级到本地索引)，local 为直接查本地空间索引
+     */
+    @Value("${hmdp.shop.geo-source:redis}")
+    private String geoSource;
 
     @Override
     public Result queryById(Long id) {
@@ -62,13 +121,54 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (shop == null) {
             return Result.fail("店铺 id 不存在");
         }
+        // 合并尚未写回数据库的销量、评论数
+        mergePendingCounts(Collections.singletonList(shop));
         return Result.ok(shop);
     }
 
+    @Override
+    public CompletableFuture<Result> queryByIdAsync(Long id) {
+        // 1. 缓存和四个增量 hash 的命令一起发出去，在一条连接上就是一次流水线
+        RedisAsyncCommands<String, String> redis = asyncRedis.commands();
+        RequestContext context = RequestContext.current();
+        String field = id.toString();
+        CompletableFuture<String> json = redis.get(CACHE_SHOP_KEY + id).toCompletableFuture();
+        CompletableFuture<String> soldDelta = redis.hget(CounterType.SHOP_SOLD.getDeltaKey(), field).toCompletableFuture();
+        CompletableFuture<String> soldFlushing = redis.hget(CounterType.SHOP_SOLD.getFlushingKey(), field).toCompletableFuture();
+        CompletableFuture<String> commentsDelta = redis.hget(CounterType.SHOP_COMMENTS.getDeltaKey(), field).toCompletableFuture();
+        CompletableFuture<String> commentsFlushing = redis.hget(CounterType.SHOP_COMMENTS.getFlushingKey(), field).toCompletableFuture();
+        return CompletableFuture.allOf(json, soldDelta, soldFlushing, commentsDelta, commentsFlushing)
+                .thenCompose(v -> {
+                    // 2. 未命中或已逻辑过期：需要加锁、重建缓存，交给线程池走同步逻辑(在 IO 线程上提交，显式带上请求上下文)
+                    String shopJson = json.join();
+                    RedisData redisData = StrUtil.isBlank(shopJson) ? null : JSONUtil.toBean(shopJson, RedisData.class);
+                    if (redisData == null || redisData.getData() == null
+                            || !LocalDateTime.now().isBefore(redisData.getExpireTime())) {
+                        try {
+                            return CompletableFuture.supplyAsync(
+                                    RequestContext.wrapSupplier(context, () -> queryById(id)), asyncRequestExecutor);
+                        } catch (RejectedExecutionException e) {
+                            return CompletableFuture.completedFuture(Result.fail("系统繁忙，请稍后再试"));
+                        }
+                    }
+                    // 3. 命中：合并尚未写回数据库的销量、评论数
+                    Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
+                    shop.setSold(WriteBehindCounter.merge(shop.getSold(),
+                            parseCount(soldDelta.join()) + parseCount(soldFlushing.join())));
+                    shop.setComments(WriteBehindCounter.merge(shop.getComments(),
+                            parseCount(commentsDelta.join()) + parseCount(commentsFlushing.join())));
+                    return CompletableFuture.completedFuture(Result.ok(shop));
+                });
+    }
+
+    private static long parseCount(String value) {
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
     // Alibaba Java 开发手册提醒: 优化线程池的创建
     // private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
-    private static final ThreadPoolExecutor CACHE_REBUILD_EXECUTOR = new ThreadPoolExecutor(
+    private static final ThreadPoolExecutor CACHE_REBUILD_EXECUTOR = new ContextThreadPoolExecutor(
             5,
             10,
             60L,
@@ -108,8 +208,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 5.2 过期则进行缓存重建
         // 6. 缓存重建
         // 7. 尝试获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, "shop:" + id);
+        boolean isLock = lock.tryLock(LOCK_SHOP_TTL);
         // 8. 判断获取互斥锁是否成功
         if (isLock) {
             // ================== DOUBLE CHECK =================
@@ -119,7 +219,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             LocalDateTime newExpireTime = newRedisData.getExpireTime();
             if (LocalDateTime.now().isBefore(newExpireTime)) {
                 // 未过期直接返回店铺信息(这就是存 LocalDateTime 的好处，比较时间直接调用 isAfter、isBefore)
-                unlock(lockKey);
+                lock.unlock();
                 return shop;
             }
             // ================== DOUBLE CHECK =================
@@ -134,7 +234,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
                 }
                 finally {
                     // 释放锁
-                    unlock(lockKey);
+                    lock.unlock();
                 }
             });
         }
@@ -166,10 +266,10 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         // 4. 实现缓存重建
         // 4.1 获取互斥锁
-        String lockKey = "lock:shop:" + id;
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, "shop:" + id);
         Shop shop = null;
         try {
-            boolean isLock = tryLock(lockKey);
+            boolean isLock = lock.tryLock(LOCK_SHOP_TTL);
             // 4.2 判断是否获取成功
             if (!isLock) {
                 // 4.3 失败则返回休眠并重试
@@ -185,14 +285,14 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             // 2. 判断缓存是否命中(会放行空字符串和真 null)
             if (StrUtil.isNotBlank(shopJson)) {
                 // 3. 命中则返回店铺信息, BUGFIX: 别忘了return 之前放锁，否则要靠锁过期来兜底了...
-                unlock(lockKey);
+                lock.unlock();
                 shop = JSONUtil.toBean(shopJson, Shop.class);
                 return shop;
             }
             // 混入的空字符串,判断是否为空值
             if (shopJson != null) {
                 // 返回一个错误信息 BUGFIX: 别忘了return 之前放锁，否则要靠锁过期来兜底了...
-                unlock(lockKey);
+                lock.unlock();
                 return null;
             }
             // ================== DOUBLE CHECK =================
@@ -213,7 +313,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             throw new RuntimeException(e);
         } finally {
             // 6. 释放互斥锁
-            unlock(lockKey);
+            lock.unlock();
         }
         // 7. 返回
         return shop;
@@ -260,6 +360,28 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("店铺 id 不能为空");
         }
+        // 0. 获取写锁，和缓存重建时的读锁互斥，防止重建线程把更新前查到的旧数据写回缓存
+        ILock writeLock = new RedisReadWriteLock(stringRedisTemplate, CACHE_SHOP_KEY + id).writeLock();
+        if (!writeLock.tryLock(LOCK_WAIT_MILLIS, LOCK_SHOP_TTL)) {
+            return Result.fail("店铺信息正在刷新，请稍后重试");
+        }
+        // 更新前的类型和坐标，用来同步 GEO 集合
+        Shop old = getById(id);
+        // 写锁要等事务提交之后再释放，否则重建线程可能在提交前查到旧数据
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                if (old != null) {
+                    syncShopGeo(old, shop);
+                    syncShopName(old, shop);
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                writeLock.unlock();
+            }
+        });
         // 1. 写入数据库
         updateById(shop);
         // 2. 删除缓存
@@ -267,24 +389,293 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok();
     }
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 1. 写入数据库
+        save(shop);
+        // 2. 更新本地索引，写入所属类型的 GEO 集合，并通知各节点
+        changeShopGeo(shop.getId(), null, shop.getTypeId(), shop.getX(), shop.getY());
+        // 3. 更新名称索引
+        publishNameChange(shop.getId(), shop.getName(), shop.getScore(), shop.getSold());
+        // 4. 返回店铺id
+        return Result.ok(shop.getId());
+    }
+
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y, Long lastId) {
+        if (current == null || current < 1) {
+            return Result.fail("页码不合法");
+        }
+        // 1. 不带坐标，按数据库查询
+        if (x == null || y == null) {
+            if (lastId != null) {
+                // 1.1 按 id 滚动查询 WHERE type_id = ? AND id > lastId ORDER BY id LIMIT size，走 (type_id, id) 索引
+                List<Shop> shops = query()
+                        .eq("type_id", typeId)
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + SystemConstants.DEFAULT_PAGE_SIZE)
+                        .list();
+                ScrollResult r = new ScrollResult();
+                r.setList(shops);
+                r.setLastId(shops.isEmpty() ? lastId : shops.get(shops.size() - 1).getId());
+                return Result.ok(r);
+            }
+            // 1.2 按页码查询，前端不需要总数，不发 COUNT 查询；和滚动查询一样按 id 排序
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .orderByAsc("id")
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        // 2. 计算分页参数，超过最大页数直接返回空
+        if (current > SystemConstants.SHOP_GEO_MAX_PAGE) {
+            return Result.ok(Collections.emptyList());
+        }
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        if (GEO_SOURCE_LOCAL.equals(geoSource) && shopGeoIndex.isReady()) {
+            return Result.ok(queryNearbyLocal(typeId, x, y, from));
+        }
+        // 3. 按距离由近到远查询 GEO 集合 GEORADIUS key x y radius m WITHDIST ASC COUNT end
+        // Spring Data Redis 2.3 还没有封装 GEOSEARCH，GEORADIUS 在服务端走的是同一套实现
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results;
+        try {
+            results = stringRedisTemplate.opsForGeo().radius(
+                    SHOP_GEO_KEY + typeId,
+                    new Circle(new Point(x, y), new Distance(SystemConstants.SHOP_GEO_RADIUS, RedisGeoCommands.DistanceUnit.METERS)),
+                    RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(end)
+            );
+        } catch (DataAccessException e) {
+            // Redis 不可用，降级到本地空间索引
+            if (!shopGeoIndex.isReady()) {
+                throw e;
+            }
+            log.warn("Redis GEO 查询失败，降级到本地空间索引", e);
+            return Result.ok(queryNearbyLocal(typeId, x, y, from));
+        }
+        if (results == null) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> content = results.getContent();
+        if (content.size() <= from) {
+            // 没有下一页了
+            return Result.ok(Collections.emptyList());
+        }
+        // 4. 截取 from ~ end 的部分，记录店铺 id 和距离
+        Map<Long, Double> distanceMap = new LinkedHashMap<>(end - from);
+        content.stream().skip(from).forEach(result ->
+                distanceMap.put(Long.valueOf(result.getContent().getName()), result.getDistance().getValue()));
+        // 5. 批量查询店铺缓存，按距离顺序组装结果
+        return Result.ok(hydrateShops(distanceMap));
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        if (current == null || current < 1) {
+            return Result.fail("页码不合法");
+        }
+        // 1. 没有关键字或者索引还没导入完成，按数据库分页查询
+        if (StrUtil.isBlank(name) || !shopNameIndex.isReady()) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        // 2. 查本地倒排索引，结果已经按评分、销量排好序
+        List<Long> ids = shopNameIndex.search(
+                name, (current - 1) * SystemConstants.MAX_PAGE_SIZE, SystemConstants.MAX_PAGE_SIZE);
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 3. 批量查询店铺缓存，按索引的顺序组装结果
+        Map<Long, Shop> shopMap = cacheClient.queryBatchWithLogicalExpire(
+                CACHE_SHOP_KEY, ids, Shop.class, this::queryShopMap, 20L, TimeUnit.SECONDS);
+        List<Shop> shops = ids.stream().map(shopMap::get).filter(Objects::nonNull).collect(Collectors.toList());
+        mergePendingCounts(shops);
+        return Result.ok(shops);
+    }
+
     /**
-     * 获取锁
-     * @param key 业务相关拼接键（别和存店铺实体那个键一样，这只是一个工具人）
-     * @return 是否获取到锁
+     * 用本地空间索引查询附近商铺
      */
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        // 注意上面 stringRedisTemplate 给我们返回的是 boolean 的包装类型，而我们需要的是 基本类型，直接返回会拆箱，极易产生空指针
-        // 所以使用 Hutool 的工具类：只有在包装类型为 True 的时候才返回 true，null 和 False 都是 false
-        return BooleanUtil.isTrue(flag);
+    private List<Shop> queryNearbyLocal(Integer typeId, Double x, Double y, int from) {
+        List<ShopGeoIndex.Neighbor> neighbors = shopGeoIndex.within(
+                typeId.longValue(), x, y, SystemConstants.SHOP_GEO_RADIUS, from, SystemConstants.DEFAULT_PAGE_SIZE);
+        Map<Long, Double> distanceMap = new LinkedHashMap<>(neighbors.size() * 2);
+        for (ShopGeoIndex.Neighbor neighbor : neighbors) {
+            distanceMap.put(neighbor.getId(), neighbor.getDistance());
+        }
+        return hydrateShops(distanceMap);
     }
 
     /**
-     * 释放锁
-     * @param key 业务相关拼接键（别和存店铺实体那个键一样，这只是一个工具人）
+     * 按距离顺序批量查询店铺详情，未命中的一次性查库；Redis 不可用时直接查库
+     * @param distanceMap 有序的店铺 id -> 距离
+     * @return 带距离的店铺列表
      */
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    private List<Shop> hydrateShops(Map<Long, Double> distanceMap) {
+        if (distanceMap.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(distanceMap.keySet());
+        Map<Long, Shop> shopMap;
+        try {
+            shopMap = cacheClient.queryBatchWithLogicalExpire(
+                    CACHE_SHOP_KEY, ids, Shop.class, this::queryShopMap, 20L, TimeUnit.SECONDS);
+        } catch (DataAccessException e) {
+            shopMap = queryShopMap(ids);
+        }
+        List<Shop> shops = new ArrayList<>(ids.size());
+        for (Long shopId : ids) {
+            Shop shop = shopMap.get(shopId);
+            if (shop == null) {
+                continue;
+            }
+            shop.setDistance(distanceMap.get(shopId));
+            shops.add(shop);
+        }
+        try {
+            mergePendingCounts(shops);
+        } catch (DataAccessException e) {
+            // Redis 不可用时返回数据库中的计数
+            log.warn("查询未写回的店铺计数失败", e);
+        }
+        return shops;
+    }
+
+    /**
+     * 一次管道查询未写回的销量、评论数，合并到店铺上
+     */
+    private void mergePendingCounts(List<Shop> shops) {
+        if (shops.isEmpty()) {
+            return;
+        }
+        List<Long> ids = shops.stream().map(Shop::getId).collect(Collectors.toList());
+        Map<CounterType, long[]> pending = writeBehindCounter.pending(ids, CounterType.SHOP_SOLD, CounterType.SHOP_COMMENTS);
+        long[] sold = pending.get(CounterType.SHOP_SOLD);
+        long[] comments = pending.get(CounterType.SHOP_COMMENTS);
+        for (int i = 0; i < shops.size(); i++) {
+            Shop shop = shops.get(i);
+            shop.setSold(WriteBehindCounter.merge(shop.getSold(), sold[i]));
+            shop.setComments(WriteBehindCounter.merge(shop.getComments(), comments[i]));
+        }
+    }
+
+    private Map<Long, Shop> queryShopMap(List<Long> ids) {
+        return listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+    }
+
+    /**
+     * 启动时全量扫描店铺：构建本地空间索引和名称倒排索引，并导入按类型划分的 GEO 集合 shop:geo:{typeId}
+     * 只要有一个类型的 GEO 集合缺失就全量导入一遍(GEOADD 幂等，重复导入无副作用)
+     */
+    @PostConstruct
+    public void loadShopIndex() {
+        List<Object> typeIds = listObjs(query().select("DISTINCT type_id").getWrapper());
+        boolean complete;
+        try {
+            complete = typeIds.stream()
+                    .allMatch(typeId -> Boolean.TRUE.equals(stringRedisTemplate.hasKey(SHOP_GEO_KEY + typeId)));
+        } catch (DataAccessException e) {
+            // Redis 不可用时只构建本地索引
+            log.warn("Redis 不可用，跳过 GEO 集合导入", e);
+            complete = true;
+        }
+        ShopGeoIndex.Builder builder = new ShopGeoIndex.Builder();
+        ShopNameIndex.Builder nameBuilder = new ShopNameIndex.Builder();
+        long lastId = 0;
+        int total = 0;
+        while (true) {
+            // 按 id 游标分批查询，避免深分页
+            List<Shop> shops = query()
+                    .select("id", "name", "type_id", "x", "y", "sold", "score")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + GEO_LOAD_BATCH_SIZE)
+                    .list();
+            if (shops.isEmpty()) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            shops.forEach(shop -> nameBuilder.add(shop.getId(), shop.getName(), shop.getScore(), shop.getSold()));
+            shops.removeIf(shop -> shop.getTypeId() == null || shop.getX() == null || shop.getY() == null);
+            shops.forEach(shop -> builder.add(shop.getTypeId(), shop.getId(), shop.getX(), shop.getY()));
+            if (!complete) {
+                // 一批店铺用一次管道写入
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Shop shop : shops) {
+                        conn.geoAdd(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), shop.getId().toString());
+                    }
+                    return null;
+                });
+            }
+            total += shops.size();
+        }
+        shopGeoIndex.reset(builder);
+        shopNameIndex.reset(nameBuilder);
+        log.info("导入店铺坐标完成，共 {} 家店铺", total);
+    }
+
+    /**
+     * 店铺更新后同步 GEO 集合：类型变了要先从旧类型的集合中移除
+     * updateById 会忽略 null 字段，所以没传的字段沿用旧值
+     * @param old 更新前的店铺
+     * @param shop 本次更新的字段
+     */
+    private void syncShopGeo(Shop old, Shop shop) {
+        Long typeId = shop.getTypeId() != null ? shop.getTypeId() : old.getTypeId();
+        Double x = shop.getX() != null ? shop.getX() : old.getX();
+        Double y = shop.getY() != null ? shop.getY() : old.getY();
+        changeShopGeo(old.getId(), old.getTypeId(), typeId, x, y);
+    }
+
+    /**
+     * 店铺更新后同步名称索引，没传的字段沿用旧值
+     * @param old 更新前的店铺
+     * @param shop 本次更新的字段
+     */
+    private void syncShopName(Shop old, Shop shop) {
+        String name = shop.getName() != null ? shop.getName() : old.getName();
+        Integer score = shop.getScore() != null ? shop.getScore() : old.getScore();
+        Integer sold = shop.getSold() != null ? shop.getSold() : old.getSold();
+        if (Objects.equals(name, old.getName()) && Objects.equals(score, old.getScore()) && Objects.equals(sold, old.getSold())) {
+            return;
+        }
+        publishNameChange(old.getId(), name, score, sold);
+    }
+
+    /**
+     * 更新本节点的名称索引，并广播给其他节点；广播失败只记录日志，数据库已经写成功
+     */
+    private void publishNameChange(Long id, String name, Integer score, Integer sold) {
+        shopNameIndex.upsert(id, name, score, sold);
+        try {
+            stringRedisTemplate.convertAndSend(SHOP_NAME_CHANNEL, ShopNameIndex.message(id, name, score, sold));
+        } catch (DataAccessException e) {
+            log.error("广播店铺名称变更失败，shopId={}", id, e);
+        }
+    }
+
+    /**
+     * 店铺坐标或类型变化：先更新本节点的空间索引，再同步 GEO 集合并广播给其他节点
+     * 本地索引是 Redis 不可用时的兜底，不能排在 Redis 写入之后；Redis 失败只记录日志，数据库已经写成功，重启时的全量导入会补上
+     */
+    private void changeShopGeo(Long id, Long oldTypeId, Long typeId, Double x, Double y) {
+        shopGeoIndex.move(id, oldTypeId, typeId, x, y);
+        String member = id.toString();
+        try {
+            if (oldTypeId != null && !oldTypeId.equals(typeId)) {
+                stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + oldTypeId, member);
+            }
+            if (typeId != null && x != null && y != null) {
+                stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + typeId, new Point(x, y), member);
+            }
+            stringRedisTemplate.convertAndSend(SHOP_GEO_CHANNEL, ShopGeoIndex.message(id, oldTypeId, typeId, x, y));
+        } catch (DataAccessException e) {
+            log.error("同步店铺坐标失败，shopId={}", id, e);
+        }
     }
 
     /**
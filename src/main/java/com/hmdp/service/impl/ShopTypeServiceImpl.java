@@ -4,8 +4,12 @@ import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.ReferenceDataCache;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +21,19 @@ import org.springframework.stereotype.Service;
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    @Resource
+    private ReferenceDataCache referenceDataCache;
+
+    /**
+     * 店铺类型只有十几行，启动时整表加载进本地快照，之后的修改通过 referenceDataCache.changed 通知各节点
+     */
+    @PostConstruct
+    public void registerReferenceData() {
+        referenceDataCache.register(REFERENCE_NAME, () -> query().orderByAsc("sort").list());
+    }
+
+    @Override
+    public byte[] queryTypeListJson() {
+        return referenceDataCache.getJson(REFERENCE_NAME);
+    }
 }
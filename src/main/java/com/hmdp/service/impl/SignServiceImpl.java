@@ -0,0 +1,232 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.SignStatsDTO;
+import com.hmdp.entity.Sign;
+import com.hmdp.mapper.SignMapper;
+import com.hmdp.service.ISignService;
+import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * <p>
+ *  服务实现类
+ * </p>
+ * 签到记录存在 Redis 位图 sign:{userId}:{yyyyMM} 中，第 d 天对应第 d - 1 位，一个用户一个月最多 4 字节
+ * 统计时用 BITFIELD GET u31 0 把整个月一次取回来，连续签到和签到天数都在本地用位运算算出来
+ * 每月 1 号把上个月的位图归档到 tb_sign，一个用户一个月一行，归档后的 key 保留一段时间用于跨月的连续签到统计
+ *
+ * @author 虎哥
+ * @since 2021-12-22
+ */
+@Slf4j
+@Service
+public class SignServiceImpl extends ServiceImpl<SignMapper, Sign> implements ISignService {
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+
+    /**
+     * 整月的位图按 31 位无符号整数读取，不足 31 天的月份末尾补 0
+     */
+    private static final BitFieldSubCommands GET_MONTH = BitFieldSubCommands.create()
+            .get(BitFieldSubCommands.BitFieldType.unsigned(31)).valueAt(0);
+
+    private static final int ARCHIVE_BATCH_SIZE = 500;
+
+    /**
+     * 连续签到最多往前统计的月数(不含本月)，更长的连续签到按这个上限计算
+     */
+    private static final int STREAK_MAX_MONTHS = 12;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Override
+    public Result sign() {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate today = LocalDate.now();
+        // SETBIT sign:{userId}:{yyyyMM} dayOfMonth - 1 1
+        stringRedisTemplate.opsForValue()
+                .setBit(signKey(userId, YearMonth.from(today)), today.getDayOfMonth() - 1, true);
+        return Result.ok();
+    }
+
+    @Override
+    public Result signStats() {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate today = LocalDate.now();
+        YearMonth month = YearMonth.from(today);
+        YearMonth prev = month.minusMonths(1);
+        // 1. 一次管道取回本月位图、上个月位图及其是否还在 Redis 中
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.bitfield(signKey(userId, month), GET_MONTH);
+            conn.exists(signKey(userId, prev));
+            conn.bitfield(signKey(userId, prev), GET_MONTH);
+            return null;
+        });
+        int bits = toBits(results.get(0));
+        int day = today.getDayOfMonth();
+        // 2. 从今天往前数连续签到天数，今天还没签不算断签，从昨天开始数
+        int start = isSigned(bits, day) ? day : day - 1;
+        int streak = trailingDays(bits, start);
+        // 3. 本月到 start 为止每天都签了，继续往前面的月份数，上个月的 key 已经过期就查归档
+        if (streak == start) {
+            YearMonth m = prev;
+            int mBits = Boolean.TRUE.equals(results.get(1)) ? toBits(results.get(2)) : loadArchived(userId, prev);
+            // 每往前一个月查一次库，最多往前数 STREAK_MAX_MONTHS 个月
+            for (int i = 0; i < STREAK_MAX_MONTHS; i++) {
+                int days = trailingDays(mBits, m.lengthOfMonth());
+                streak += days;
+                if (days < m.lengthOfMonth()) {
+                    break;
+                }
+                m = m.minusMonths(1);
+                mBits = loadArchived(userId, m);
+            }
+        }
+        SignStatsDTO stats = new SignStatsDTO();
+        stats.setStreak(streak);
+        stats.setMonthCount(Integer.bitCount(bits));
+        stats.setMonthBits(bits);
+        return Result.ok(stats);
+    }
+
+    /**
+     * 每月 1 号凌晨归档上个月的签到记录
+     */
+    @Scheduled(cron = "0 30 0 1 * ?")
+    public void archiveLastMonth() {
+        archive(YearMonth.now().minusMonths(1));
+    }
+
+    @Override
+    public void archive(YearMonth month) {
+        // 多个节点只需要一个归档，重复归档也是覆盖写，不会出错
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, "sign:archive");
+        if (!lock.tryLock(LOCK_SIGN_ARCHIVE_TTL)) {
+            return;
+        }
+        String suffix = ":" + month.format(MONTH_FORMATTER);
+        ScanOptions options = ScanOptions.scanOptions().match(USER_SIGN_KEY + "*" + suffix).count(1000).build();
+        int total = 0;
+        // SCAN 游标遍历，不会像 KEYS 一样阻塞 Redis
+        try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(connection -> connection.scan(options))) {
+            List<String> keys = new ArrayList<>(ARCHIVE_BATCH_SIZE);
+            while (cursor != null && cursor.hasNext()) {
+                keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                if (keys.size() >= ARCHIVE_BATCH_SIZE) {
+                    total += archiveBatch(keys, month, suffix);
+                    keys.clear();
+                }
+            }
+            if (!keys.isEmpty()) {
+                total += archiveBatch(keys, month, suffix);
+            }
+        } catch (IOException e) {
+            log.error("关闭 SCAN 游标失败", e);
+        } finally {
+            lock.unlock();
+        }
+        log.info("{} 签到记录归档完成，共 {} 个用户", month, total);
+    }
+
+    /**
+     * 归档一批 key：管道读取位图 -> 一条 SQL 批量写库 -> 管道设置过期时间
+     */
+    private int archiveBatch(List<String> keys, YearMonth month, String suffix) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            keys.forEach(key -> conn.bitfield(key, GET_MONTH));
+            return null;
+        });
+        List<Sign> signs = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            Long userId = Long.valueOf(key.substring(USER_SIGN_KEY.length(), key.length() - suffix.length()));
+            signs.add(new Sign()
+                    .setUserId(userId)
+                    .setYear(month.getYear())
+                    .setMonth(month.getMonthValue())
+                    .setSignBits(toBits(results.get(i))));
+        }
+        getBaseMapper().upsertBatch(signs);
+        // 写库成功后 key 不立即删除，留着给跨月的连续签到统计用
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            keys.forEach(key -> conn.expire(key, TimeUnit.DAYS.toSeconds(USER_SIGN_ARCHIVED_TTL)));
+            return null;
+        });
+        return signs.size();
+    }
+
+    /**
+     * 查询已经归档的某个月的签到位图，没有记录返回 0
+     */
+    private int loadArchived(Long userId, YearMonth month) {
+        Sign sign = query()
+                .eq("user_id", userId)
+                .eq("year", month.getYear())
+                .eq("month", month.getMonthValue())
+                .one();
+        return sign == null || sign.getSignBits() == null ? 0 : sign.getSignBits();
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(MONTH_FORMATTER);
+    }
+
+    /**
+     * BITFIELD 返回的是 List<Long>，只有一个 GET 子命令
+     */
+    private static int toBits(Object result) {
+        if (!(result instanceof List) || ((List<?>) result).isEmpty()) {
+            return 0;
+        }
+        Object value = ((List<?>) result).get(0);
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    /**
+     * 第 day 天是否签到，第 d 天对应 31 位整数从高位数第 d 位
+     */
+    static boolean isSigned(int bits, int day) {
+        return (bits >>> (31 - day) & 1) == 1;
+    }
+
+    /**
+     * 从第 day 天往前数连续签到的天数，day 为 0 时返回 0
+     */
+    static int trailingDays(int bits, int day) {
+        int count = 0;
+        for (int d = day; d >= 1; d--) {
+            if (!isSigned(bits, d)) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+}
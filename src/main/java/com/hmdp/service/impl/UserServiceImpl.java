@@ -1,9 +1,8 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
@@ -11,15 +10,28 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BatchCoalescer;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.SignedTokenCodec;
+import com.hmdp.utils.TokenRevocationList;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.UserHashCodec;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import static com.hmdp.utils.RedisConstants.*;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 
@@ -35,9 +47,36 @@ import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 @Service
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IUserService {
 
+    private static final String AUTH_MODE_SIGNED = "signed";
+
+    private static final int USER_CREATE_BATCH_SIZE = 200;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private LoginSessionCache loginSessionCache;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private SignedTokenCodec signedTokenCodec;
+
+    @Resource
+    private TokenRevocationList tokenRevocationList;
+
+    /**
+     * 登录令牌模式：redis 为 Redis 保存会话的 UUID 令牌，signed 为本地校验的自包含签名令牌
+     */
+    @Value("${hmdp.auth.mode:redis}")
+    private String authMode;
+
+    /**
+     * 并发注册的新用户合并成一条 INSERT，营销推送带来的登录高峰期间数据库的写入语句数随批次大小下降
+     */
+    private final BatchCoalescer<String, User> userCreator = new BatchCoalescer<>(USER_CREATE_BATCH_SIZE, this::createUsersWithPhones);
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         // 1.校验手机号
@@ -63,45 +102,128 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             // 如果不符合返回错误信息
             return Result.fail("手机号格式错误");
         }
-        // 1. 从 redis 中获取验证码, 注意别把键漏了层级，单单写个 phone
-        String cacheCode = stringRedisTemplate.opsForValue().get(LOGIN_CODE_KEY + phone);
+        // 1. 从 redis 中获取验证码, 注意别把键漏了层级，单单写个 phone；顺带取出手机号对应的用户 id
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(
+                Arrays.asList(LOGIN_CODE_KEY + phone, LOGIN_PHONE_KEY + phone));
+        String cacheCode = values == null ? null : values.get(0);
         String code = loginForm.getCode();
-        if ( cacheCode == null || !code.equals(cacheCode)){
+        if ( cacheCode == null || !cacheCode.equals(code)){
             // 2. 如果不一致则返回让用户重新提交
             return Result.fail("验证码错误，请重新输入");
         }
-        // 3. 如果一致则根据手机号查询用户
-        User user = query().eq("phone", phone).one();
+        // 3. 如果一致则根据手机号查询用户，先查手机号 -> 用户 id 的缓存，再查用户缓存，热路径上不查库
+        UserDTO userDTO = queryUserByPhone(phone, values.get(1));
         // 4. 判断用户是否存在
-        if (user == null) {
-            // 5. 不存在则创建新的用户并保存
-            user = createUserWithPhone(phone);
+        if (userDTO == null) {
+            // 5. 不存在则创建新的用户并保存，并发的注册合并成批量插入
+            userDTO = UserHashCodec.toDTO(createUserWithPhone(phone));
+        }
+        // 签名令牌模式直接签发自包含的令牌，不写 Redis
+        if (AUTH_MODE_SIGNED.equals(authMode)) {
+            long expireAt = System.currentTimeMillis() / 1000 + TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+            return Result.ok(signedTokenCodec.encode(userDTO, expireAt));
         }
         // 6. 保存用户信息到 redis 中
         // 6.1 随机生成 token，作为登录令牌
         String token = UUID.randomUUID().toString(true);
-        // 6.2 将 UserDTO 转为 HashMap 存储, 注意这里不把 DTO 的 Long 类型转为 String 类型会报错，因为使用的是 stringRedisTemplate，泛型为双 String
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(10),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
-        // 6.3 存储
+        // 6.2 手写编码为 hash，值都是字符串
+        Map<String, String> userMap = UserHashCodec.encode(userDTO);
+        // 6.3 存储并设置有效期，一次管道往返
         String tokenKey = LOGIN_USER_KEY + token;
-        stringRedisTemplate.opsForHash().putAll(tokenKey, userMap);
-        // 6.4 设置有效期
-        stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        long seconds = TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMSet(tokenKey, userMap);
+            conn.expire(tokenKey, seconds);
+            return null;
+        });
         // 7.1 返回 token
         return Result.ok(token);
     }
 
+    @Override
+    public Result logout(String token) {
+        if (StrUtil.isBlank(token)) {
+            return Result.fail("未登录");
+        }
+        // 签名令牌无法删除，只能加入吊销列表直到它自然过期
+        if (SignedTokenCodec.isSigned(token)) {
+            long expireAt = System.currentTimeMillis() / 1000 + TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+            tokenRevocationList.revoke(SignedTokenCodec.signatureOf(token), expireAt);
+            return Result.ok();
+        }
+        // 1. 删除 Redis 中的会话
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        // 2. 广播失效，所有节点清掉本地会话缓存
+        loginSessionCache.invalidate(token);
+        return Result.ok();
+    }
+
+    @Override
+    public Map<Long, UserDTO> queryUserDTOsByIds(List<Long> userIds) {
+        return cacheClient.queryBatchWithPassThrough(
+                CACHE_USER_KEY, userIds, UserDTO.class,
+                misses -> listByIds(misses).stream()
+                        .collect(Collectors.toMap(User::getId, UserHashCodec::toDTO)),
+                CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 根据手机号查询用户
+     * @param phone 手机号
+     * @param cachedId 缓存中的用户 id，null 表示未缓存，空字符串表示已知未注册
+     * @return 未注册返回 null
+     */
+    private UserDTO queryUserByPhone(String phone, String cachedId) {
+        if (cachedId != null) {
+            if (cachedId.isEmpty()) {
+                return null;
+            }
+            Long userId = Long.valueOf(cachedId);
+            UserDTO userDTO = queryUserDTOsByIds(Collections.singletonList(userId)).get(userId);
+            if (userDTO != null) {
+                return userDTO;
+            }
+        }
+        User user = query().select("id", "nick_name", "icon").eq("phone", phone).one();
+        if (user == null) {
+            // 新用户：缓存空值，重复提交时直接去创建，不再查库
+            stringRedisTemplate.opsForValue().set(LOGIN_PHONE_KEY + phone, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return null;
+        }
+        stringRedisTemplate.opsForValue().set(LOGIN_PHONE_KEY + phone, user.getId().toString(), LOGIN_PHONE_TTL, TimeUnit.DAYS);
+        return UserHashCodec.toDTO(user);
+    }
+
     private User createUserWithPhone(String phone) {
-        // 创建用户，存入 phone 和 随机名字即可
-        User user = new User();
-        user.setPhone(phone);
-        user.setNickName(USER_NICK_NAME_PREFIX + RandomUtil.randomString(7));
+        return userCreator.submit(phone);
+    }
+
+    /**
+     * 批量创建用户，存入 phone 和 随机名字即可
+     * 手机号已存在的行被 uniqe_key_phone 忽略，最后统一按手机号查回，已存在的手机号返回原来的用户
+     * @param phones 去重后的手机号
+     * @return 手机号 -> 用户
+     */
+    private Map<String, User> createUsersWithPhones(List<String> phones) {
+        List<User> users = new ArrayList<>(phones.size());
+        for (String phone : phones) {
+            User user = new User();
+            user.setPhone(phone);
+            user.setNickName(USER_NICK_NAME_PREFIX + RandomUtil.randomString(7));
+            users.add(user);
+        }
         // 保存用户信息
-        save(user);
-        return user;
+        getBaseMapper().insertIgnoreBatch(users);
+        Map<String, User> created = query().select("id", "phone", "nick_name", "icon").in("phone", phones).list()
+                .stream().collect(Collectors.toMap(User::getPhone, u -> u));
+        // 覆盖掉新用户的空值缓存
+        long seconds = TimeUnit.DAYS.toSeconds(LOGIN_PHONE_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            created.forEach((phone, user) -> conn.setEx(LOGIN_PHONE_KEY + phone, seconds, user.getId().toString()));
+            return null;
+        });
+        return created;
     }
 }
@@ -1,22 +1,38 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.config.AsyncConfig;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CounterType;
 import com.hmdp.utils.RedisIdWorker;
 import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.WriteBehindCounter;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.aop.framework.AopContext;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -26,6 +42,7 @@ import java.time.LocalDateTime;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
@@ -38,6 +55,28 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private WriteBehindCounter writeBehindCounter;
+
+    /**
+     * 秒杀任务在线程池里最多排队的时间，要明显小于秒杀接口的异步超时(VoucherOrderController 中 15 秒)，给下单本身留出时间
+     */
+    private static final long SECKILL_QUEUE_TIMEOUT_MILLIS = 2000L;
+
+    @Resource(name = AsyncConfig.ASYNC_REQUEST_EXECUTOR)
+    private ThreadPoolTaskExecutor asyncRequestExecutor;
+
+    private static final DefaultRedisScript<Long> STOCK_DECR_SCRIPT;
+
+    static {
+        STOCK_DECR_SCRIPT = new DefaultRedisScript<>();
+        STOCK_DECR_SCRIPT.setLocation(new ClassPathResource("seckill_stock_decr.lua"));
+        STOCK_DECR_SCRIPT.setResultType(Long.class);
+    }
+
     @Override
     public Result seckillVoucher(Long voucherId) {
         // 1. 查询优惠券信息
@@ -77,6 +116,21 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     }
 
+    @Override
+    public CompletableFuture<Result> seckillVoucherAsync(Long voucherId) {
+        // 代理对象只能在请求线程上取得；用户等请求上下文由线程池的 TaskDecorator 在提交时捕获
+        IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
+        // 排队超过期限就不再下单：否则请求已经按异步超时返回 503，订单却在之后创建出来
+        long deadline = System.currentTimeMillis() + SECKILL_QUEUE_TIMEOUT_MILLIS;
+        try {
+            return CompletableFuture.supplyAsync(() -> System.currentTimeMillis() > deadline
+                    ? Result.fail("系统繁忙，请稍后再试")
+                    : proxy.seckillVoucher(voucherId), asyncRequestExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(Result.fail("系统繁忙，请稍后再试"));
+        }
+    }
+
     @Override
     @Transactional
     public Result createVoucherOrder(Long voucherId) {
@@ -109,6 +163,26 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 5.3 代金券 id
         voucherOrder.setVoucherId(voucherId);
         save(voucherOrder);
+        // 5.4 事务提交后：展示用的 Redis 库存 -1；店铺销量 +1 记增量，由 WriteBehindCounter 批量写回，不在 tb_shop 的行锁上排队
+        Voucher voucher = voucherService.getById(voucherId);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                // 订单已经提交，这里的异常不能再抛给下单的用户，只记录日志：展示库存由补库存的过期时间兜底
+                try {
+                    stringRedisTemplate.execute(STOCK_DECR_SCRIPT, Collections.singletonList(SECKILL_STOCK_KEY + voucherId));
+                } catch (Exception e) {
+                    log.error("扣减展示库存失败，voucherId={}", voucherId, e);
+                }
+                if (voucher != null && voucher.getShopId() != null) {
+                    try {
+                        writeBehindCounter.incr(CounterType.SHOP_SOLD, voucher.getShopId(), 1);
+                    } catch (Exception e) {
+                        log.error("累加店铺销量失败，shopId={}", voucher.getShopId(), e);
+                    }
+                }
+            }
+        });
         // 6. 返回订单 id
         return Result.ok(orderId);
     }
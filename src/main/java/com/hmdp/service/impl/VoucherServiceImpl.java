@@ -7,11 +7,27 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -21,20 +37,37 @@ import java.util.List;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 1. 优惠券的基本信息很少变化，整个列表按店铺缓存，新增优惠券时删除
+        List<Voucher> vouchers = cacheClient.queryListWithPassThrough(CACHE_SHOP_VOUCHER_KEY, shopId, Voucher.class,
+                getBaseMapper()::queryVoucherOfShop, CACHE_SHOP_VOUCHER_TTL, TimeUnit.MINUTES);
+        // 2. 库存变化很快，用 Redis 里的秒杀库存覆盖缓存中的旧值
+        overlayStock(vouchers);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    @Override
+    @Transactional
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+        evictVoucherOfShop(voucher.getShopId());
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -47,5 +80,85 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        // 事务提交后初始化 Redis 中的展示库存，和补库存一样带过期时间：扣减失败造成的偏差过期后从数据库重新补上
+        String stockKey = SECKILL_STOCK_KEY + voucher.getId();
+        String stock = String.valueOf(voucher.getStock());
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    stringRedisTemplate.opsForValue().set(stockKey, stock, SECKILL_STOCK_SEED_TTL, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    // 优惠券已经保存，查询时会从数据库补上库存
+                    log.error("初始化秒杀库存失败：{}", stockKey, e);
+                }
+            }
+        });
+        evictVoucherOfShop(voucher.getShopId());
+    }
+
+    /**
+     * 秒杀券(LEFT JOIN 到了秒杀信息，stock 不为空)的库存改为从 Redis 一次 MGET 读取
+     * 库存 key 不存在(例如历史数据)时从数据库补上，只用 SET NX 写入，不会覆盖已经在扣减的值
+     * 补上的值带较短的过期时间：读库和 SET NX 之间提交的订单找不到 key，扣减会落空，补上的值就会多 1，过期后重新从数据库补
+     */
+    private void overlayStock(List<Voucher> vouchers) {
+        List<Voucher> seckills = vouchers.stream().filter(v -> v.getStock() != null).collect(Collectors.toList());
+        if (seckills.isEmpty()) {
+            return;
+        }
+        List<String> keys = seckills.stream().map(v -> SECKILL_STOCK_KEY + v.getId()).collect(Collectors.toList());
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(keys);
+        List<Voucher> misses = new ArrayList<>();
+        for (int i = 0; i < seckills.size(); i++) {
+            String stock = stocks == null ? null : stocks.get(i);
+            if (stock == null) {
+                misses.add(seckills.get(i));
+            } else {
+                seckills.get(i).setStock(Math.max(Integer.parseInt(stock), 0));
+            }
+        }
+        if (misses.isEmpty()) {
+            return;
+        }
+        Map<Long, Integer> dbStocks = new HashMap<>(misses.size() * 2);
+        for (SeckillVoucher sv : seckillVoucherService.listByIds(
+                misses.stream().map(Voucher::getId).collect(Collectors.toList()))) {
+            dbStocks.put(sv.getVoucherId(), sv.getStock());
+        }
+        Map<String, String> seeds = new HashMap<>(dbStocks.size() * 2);
+        for (Voucher voucher : misses) {
+            Integer stock = dbStocks.get(voucher.getId());
+            if (stock != null) {
+                voucher.setStock(stock);
+                seeds.put(SECKILL_STOCK_KEY + voucher.getId(), stock.toString());
+            }
+        }
+        Expiration ttl = Expiration.seconds(SECKILL_STOCK_SEED_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            seeds.forEach((key, stock) -> conn.set(key, stock, ttl, RedisStringCommands.SetOption.ifAbsent()));
+            return null;
+        });
+    }
+
+    /**
+     * 事务提交后删除店铺的优惠券列表缓存
+     */
+    private void evictVoucherOfShop(Long shopId) {
+        if (shopId == null) {
+            return;
+        }
+        String key = CACHE_SHOP_VOUCHER_KEY + shopId;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    stringRedisTemplate.delete(key);
+                } catch (Exception e) {
+                    log.error("删除优惠券列表缓存失败：{}", key, e);
+                }
+            }
+        });
     }
 }
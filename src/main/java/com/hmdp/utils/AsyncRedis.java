@@ -0,0 +1,83 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.resource.ClientResources;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+
+/**
+ * @author codeep
+ * @date 2023/8/28 9:20
+ * @description: Lettuce 的异步命令，给异步接口使用
+ * StringRedisTemplate 的每个调用都会阻塞当前线程直到 Redis 返回；这里是一条长连接上的异步 API，命令发出去就返回 future，
+ * 同时发出的多条命令在一条连接上天然就是流水线，结果回调在 Lettuce 的 IO 线程上执行，回调里不能做任何阻塞操作(查库、同步 Redis 调用)
+ * 和 Spring 的连接工厂共用 ClientResources(IO 线程池)，连接在第一次使用时才建立，不影响 Redis 不可用时的启动
+ */
+@Component
+public class AsyncRedis {
+
+    private final RedisProperties redisProperties;
+
+    private final ClientResources clientResources;
+
+    private RedisClient client;
+
+    private volatile StatefulRedisConnection<String, String> connection;
+
+    public AsyncRedis(RedisProperties redisProperties, ClientResources clientResources) {
+        this.redisProperties = redisProperties;
+        this.clientResources = clientResources;
+    }
+
+    /**
+     * 获取异步命令，多个线程共用同一条连接是安全的
+     */
+    public RedisAsyncCommands<String, String> commands() {
+        StatefulRedisConnection<String, String> conn = connection;
+        if (conn == null) {
+            conn = connect();
+        }
+        return conn.async();
+    }
+
+    private synchronized StatefulRedisConnection<String, String> connect() {
+        if (connection == null) {
+            client = RedisClient.create(clientResources, redisUri());
+            connection = client.connect();
+        }
+        return connection;
+    }
+
+    private RedisURI redisUri() {
+        if (StrUtil.isNotBlank(redisProperties.getUrl())) {
+            return RedisURI.create(redisProperties.getUrl());
+        }
+        RedisURI uri = RedisURI.builder()
+                .withHost(redisProperties.getHost())
+                .withPort(redisProperties.getPort())
+                .withDatabase(redisProperties.getDatabase())
+                .withSsl(redisProperties.isSsl())
+                .build();
+        if (StrUtil.isNotBlank(redisProperties.getPassword())) {
+            uri.setPassword(redisProperties.getPassword().toCharArray());
+        }
+        if (redisProperties.getTimeout() != null) {
+            uri.setTimeout(redisProperties.getTimeout());
+        }
+        return uri;
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        if (connection != null) {
+            connection.close();
+            client.shutdown();
+        }
+    }
+}
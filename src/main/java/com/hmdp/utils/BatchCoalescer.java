@@ -0,0 +1,101 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+/**
+ * @author codeep
+ * @date 2023/8/30 9:45
+ * @description: 把并发的单条写入合并成批量写入(组提交)
+ * 调用方先把请求放进队列再去抢锁，拿到锁的线程把队列里积攒的请求一次取走、批量执行，并把结果分发给每个请求
+ * 一个批次执行期间新到的请求都在排队，下一个拿到锁的线程一次处理它们；自己的请求已经被别人处理了就直接返回
+ * 负载低时每个批次只有一条，没有额外的等待；负载越高批次越大，数据库的语句数和事务数随之下降
+ */
+public class BatchCoalescer<K, V> {
+
+    private final int maxBatchSize;
+
+    /**
+     * 批量执行：输入去重后的 key，返回 key -> 结果，缺少的 key 视为失败
+     */
+    private final Function<List<K>, Map<K, V>> loader;
+
+    private final ConcurrentLinkedQueue<Pending<K, V>> queue = new ConcurrentLinkedQueue<>();
+
+    private final Object lock = new Object();
+
+    public BatchCoalescer(int maxBatchSize, Function<List<K>, Map<K, V>> loader) {
+        this.maxBatchSize = maxBatchSize;
+        this.loader = loader;
+    }
+
+    /**
+     * 提交一条请求并等待所在批次执行完成
+     * @param key 请求
+     * @return 结果
+     */
+    public V submit(K key) {
+        Pending<K, V> pending = new Pending<>(key);
+        queue.add(pending);
+        // 队列先进先出，自己的请求最多在第 size / maxBatchSize 个批次里被处理
+        while (!pending.future.isDone()) {
+            synchronized (lock) {
+                if (!pending.future.isDone()) {
+                    flush();
+                }
+            }
+        }
+        try {
+            return pending.future.join();
+        } catch (CompletionException e) {
+            // 抛出批量执行时的原始异常
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private void flush() {
+        List<Pending<K, V>> batch = new ArrayList<>();
+        Set<K> keys = new LinkedHashSet<>();
+        Pending<K, V> next;
+        while (keys.size() < maxBatchSize && (next = queue.poll()) != null) {
+            batch.add(next);
+            keys.add(next.key);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            Map<K, V> result = loader.apply(new ArrayList<>(keys));
+            for (Pending<K, V> p : batch) {
+                V value = result.get(p.key);
+                if (value != null) {
+                    p.future.complete(value);
+                } else {
+                    p.future.completeExceptionally(new IllegalStateException("批量写入没有返回结果：" + p.key));
+                }
+            }
+        } catch (RuntimeException e) {
+            for (Pending<K, V> p : batch) {
+                p.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static class Pending<K, V> {
+
+        private final K key;
+
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+
+        private Pending(K key) {
+            this.key = key;
+        }
+    }
+}
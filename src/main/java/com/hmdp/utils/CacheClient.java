@@ -1,20 +1,24 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
+import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -30,8 +34,15 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 限制整个集群同时查库重建缓存的数量
+     */
+    private final RedisSemaphore rebuildSemaphore;
+
     public CacheClient(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.rebuildSemaphore =
+                new RedisSemaphore(stringRedisTemplate, CACHE_REBUILD_SEMAPHORE, CACHE_REBUILD_PERMITS);
     }
 
     /**
@@ -101,7 +112,211 @@ public class CacheClient {
         return r;
     }
 
-    private static final ThreadPoolExecutor CACHE_REBUILD_EXECUTOR = new ThreadPoolExecutor(
+    /**
+     * 列表版本的 queryWithPassThrough：一个 key 缓存一整个列表，空列表也会缓存成 []，不会穿透到数据库
+     * @param prefix key 值前缀
+     * @param id 查询的 id
+     * @param type 列表元素的 class 类型
+     * @param dbFallback 函数式编程：传入查询列表的函数
+     * @param time 过期时间
+     * @param timeUnit 过期单位
+     * @param <R> 列表元素类型
+     * @param <ID> id 类型
+     * @return 查询的列表，不会为 null
+     */
+    public <R, ID> List<R> queryListWithPassThrough(
+            String prefix, ID id, Class<R> type, Function<ID, List<R>> dbFallback, Long time, TimeUnit timeUnit) {
+        String key = prefix + id;
+        // 1. 命中直接反序列化
+        String json = stringRedisTemplate.opsForValue().get(key);
+        if (StrUtil.isNotBlank(json)) {
+            return JSONUtil.toList(json, type);
+        }
+        // 2. 未命中查库，查不到也缓存空列表
+        List<R> list = dbFallback.apply(id);
+        if (list == null) {
+            list = Collections.emptyList();
+        }
+        this.set(key, list, time, timeUnit);
+        return list;
+    }
+
+    /**
+     * 批量版本的 queryWithPassThrough：一次 MGET 查缓存，未命中的一次性交给 dbFallback 批量查库，再用管道回写缓存
+     * @param prefix key 值前缀
+     * @param ids 查询的 id 列表
+     * @param type 返回的实体 class 类型
+     * @param dbFallback 函数式编程：传入批量查库的函数，返回 id -> 实体，查不到的 id 不用放进去
+     * @param time 过期时间
+     * @param timeUnit 过期单位
+     * @param <R> 返回的实体类型
+     * @param <ID> id 类型
+     * @return id -> 实体，不存在的 id 不会出现在结果中
+     */
+    public <R, ID> Map<ID, R> queryBatchWithPassThrough(
+            String prefix, List<ID> ids, Class<R> type, Function<List<ID>, Map<ID, R>> dbFallback,
+            Long time, TimeUnit timeUnit) {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<ID, R> result = new HashMap<>(ids.size() * 2);
+        // 1. 一次 MGET 查询所有缓存
+        List<String> keys = ids.stream().map(id -> prefix + id).collect(Collectors.toList());
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        List<ID> misses = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isNotBlank(json)) {
+                // 2. 命中
+                result.put(ids.get(i), JSONUtil.toBean(json, type));
+            } else if (json == null) {
+                // 3. 未命中，空字符串说明是缓存的空值，直接跳过
+                misses.add(ids.get(i));
+            }
+        }
+        if (misses.isEmpty()) {
+            return result;
+        }
+        // 4. 未命中的批量查库
+        Map<ID, R> loaded = dbFallback.apply(misses);
+        result.putAll(loaded);
+        // 5. 管道回写缓存，查不到的写空值防止缓存穿透
+        long seconds = timeUnit.toSeconds(time);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (ID id : misses) {
+                R r = loaded.get(id);
+                conn.setEx(prefix + id, seconds, r == null ? "" : JSONUtil.toJsonStr(r));
+            }
+            return null;
+        });
+        return result;
+    }
+
+    /**
+     * 批量版本的逻辑过期查询，和 queryWithLogicalExpire 共用同一种缓存格式
+     * 一次 MGET 查缓存；已经逻辑过期的先返回旧数据，按 key 走和单个查询相同的加锁异步重建
+     * 未命中的一次性交给 dbFallback 批量查库作为本次结果，缓存也由异步重建写入
+     * @param prefix key 值前缀
+     * @param ids 查询的 id 列表
+     * @param type 返回的实体 class 类型
+     * @param dbFallback 函数式编程：传入批量查库的函数，返回 id -> 实体
+     * @param time 逻辑过期时间
+     * @param timeUnit 过期单位
+     * @param <R> 返回的实体类型
+     * @param <ID> id 类型
+     * @return id -> 实体，不存在的 id 不会出现在结果中
+     */
+    public <R, ID> Map<ID, R> queryBatchWithLogicalExpire(
+            String prefix, List<ID> ids, Class<R> type, Function<List<ID>, Map<ID, R>> dbFallback,
+            Long time, TimeUnit timeUnit) {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<ID, R> result = new HashMap<>(ids.size() * 2);
+        // 1. 一次 MGET 查询所有缓存
+        List<String> keys = ids.stream().map(id -> prefix + id).collect(Collectors.toList());
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        List<ID> misses = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        Function<ID, R> singleFallback = id -> dbFallback.apply(Collections.singletonList(id)).get(id);
+        for (int i = 0; i < ids.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isBlank(json)) {
+                misses.add(ids.get(i));
+                continue;
+            }
+            RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+            if (redisData.getData() == null) {
+                misses.add(ids.get(i));
+                continue;
+            }
+            result.put(ids.get(i), JSONUtil.toBean((JSONObject) redisData.getData(), type));
+            // 2. 已经逻辑过期：先返回旧数据，和 queryWithLogicalExpire 一样加锁异步重建
+            if (now.isAfter(redisData.getExpireTime())) {
+                rebuildAsync(prefix + ids.get(i), ids.get(i), singleFallback, time, timeUnit);
+            }
+        }
+        if (misses.isEmpty()) {
+            return result;
+        }
+        // 3. 未命中的没有旧数据可以返回，批量查库作为本次结果；缓存同样交给加锁的异步重建写入，避免覆盖更新后的数据
+        Map<ID, R> loaded = dbFallback.apply(misses);
+        result.putAll(loaded);
+        for (ID id : loaded.keySet()) {
+            rebuildAsync(prefix + id, id, singleFallback, time, timeUnit);
+        }
+        return result;
+    }
+
+    /**
+     * 正在排队或执行的异步重建，同一个 key 在本节点只提交一次，列表页的大量并发请求不会挤满线程池
+     */
+    private final Set<String> pendingRebuilds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 在线程池里重建一个 key：互斥锁 -> 二次检查 -> 集群重建许可 -> 读锁内查库回写，和 queryWithLogicalExpire 的重建过程一致
+     */
+    private <R, ID> void rebuildAsync(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        if (!pendingRebuilds.add(key)) {
+            return;
+        }
+        try {
+            CACHE_REBUILD_EXECUTOR.execute(() -> {
+                try {
+                    SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, lockName(key));
+                    if (!lock.tryLock(LOCK_SHOP_TTL)) {
+                        return;
+                    }
+                    try {
+                        String json = stringRedisTemplate.opsForValue().get(key);
+                        if (StrUtil.isNotBlank(json)) {
+                            RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+                            if (redisData.getData() != null && LocalDateTime.now().isBefore(redisData.getExpireTime())) {
+                                return;
+                            }
+                        }
+                        String permit = rebuildSemaphore.tryAcquire(LOCK_SHOP_TTL);
+                        if (permit == null) {
+                            return;
+                        }
+                        try {
+                            rebuild(key, id, dbFallback, time, timeUnit);
+                        } finally {
+                            rebuildSemaphore.release(permit);
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                } catch (Exception e) {
+                    log.error("缓存重建失败：{}", key, e);
+                } finally {
+                    pendingRebuilds.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingRebuilds.remove(key);
+        }
+    }
+
+    /**
+     * 重建时持有读锁，和更新数据库时的写锁互斥，避免把更新前的旧数据写回缓存
+     */
+    private <R, ID> void rebuild(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        ILock readLock = new RedisReadWriteLock(stringRedisTemplate, key).readLock();
+        if (!readLock.tryLock(LOCK_SHOP_TTL)) {
+            return;
+        }
+        try {
+            // 查询数据库，写入缓存
+            R apply = dbFallback.apply(id);
+            this.setWithLogicalExpire(key, apply, time, timeUnit);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private static final ThreadPoolExecutor CACHE_REBUILD_EXECUTOR = new ContextThreadPoolExecutor(
             5,
             10,
             60L,
@@ -147,8 +362,8 @@ public class CacheClient {
         // 5.2 过期则进行缓存重建
         // 6. 缓存重建
         // 7. 尝试获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, lockName(key));
+        boolean isLock = lock.tryLock(LOCK_SHOP_TTL);
         // 8. 判断获取互斥锁是否成功
         if (isLock) {
             // ================== DOUBLE CHECK =================
@@ -158,25 +373,25 @@ public class CacheClient {
             LocalDateTime newExpireTime = newRedisData.getExpireTime();
             if (LocalDateTime.now().isBefore(newExpireTime)) {
                 // 未过期直接返回店铺信息(这就是存 LocalDateTime 的好处，比较时间直接调用 isAfter、isBefore)
-                unlock(lockKey);
+                lock.unlock();
                 return r;
             }
             // ================== DOUBLE CHECK =================
+            // 8.1 整个集群同时查库重建的数量有限，拿不到许可就先返回旧数据，下次访问再重建
+            String permit = rebuildSemaphore.tryAcquire(LOCK_SHOP_TTL);
+            if (permit == null) {
+                lock.unlock();
+                return r;
+            }
             // 也还是过期的话则还是老老实实缓存重建吧
-            // 8.1 成功则开启从线程池中拿独立线程进行缓存重建（查数据库 -> 写入 Redis 并设置新的逻辑过期时间）
+            // 8.2 成功则开启从线程池中拿独立线程进行缓存重建（查数据库 -> 写入 Redis 并设置新的逻辑过期时间）
             CACHE_REBUILD_EXECUTOR.submit(() -> {
-                // 缓存重建
                 try {
-                    // 查询数据库
-                    R apply = dbFallback.apply(id);
-                    // 写入缓存
-                    this.setWithLogicalExpire(key, apply, time, timeUnit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-                finally {
-                    // 释放锁
-                    unlock(lockKey);
+                    rebuild(key, id, dbFallback, time, timeUnit);
+                } finally {
+                    // 释放锁和许可
+                    rebuildSemaphore.release(permit);
+                    lock.unlock();
                 }
             });
         }
@@ -185,15 +400,13 @@ public class CacheClient {
     }
 
 
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        // 注意上面 stringRedisTemplate 给我们返回的是 boolean 的包装类型，而我们需要的是 基本类型，直接返回会拆箱，极易产生空指针
-        // 所以使用 Hutool 的工具类：只有在包装类型为 True 的时候才返回 true，null 和 False 都是 false
-        return BooleanUtil.isTrue(flag);
-    }
-
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    /**
+     * 互斥锁名称，SimpleRedisLock 会统一加上 lock: 前缀，例如 cache:shop:1 -> lock:shop:1
+     * @param key 缓存的键
+     * @return 锁名称
+     */
+    private String lockName(String key) {
+        return StrUtil.removePrefix(key, "cache:");
     }
 
 }
@@ -0,0 +1,28 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author codeep
+ * @date 2023/8/29 9:40
+ * @description: 传递请求上下文的线程池
+ * submit、invokeAll 最终都走 execute，只在 execute 里包装一次：任务带上提交线程的用户、链路 id，执行完恢复工作线程原来的上下文
+ * 拒绝策略拿到的也是包装后的任务，CallerRunsPolicy 在调用线程上执行同样正确
+ */
+public class ContextThreadPoolExecutor extends ThreadPoolExecutor {
+
+    public ContextThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                     BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                                     RejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(RequestContext.wrap(command));
+    }
+}
@@ -0,0 +1,69 @@
+package com.hmdp.utils;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/22 9:40
+ * @description: 写回数据库的热点计数列，每一列在 Redis 中对应一个增量 hash(id -> 增量)和一个正在写回的 hash
+ */
+public enum CounterType {
+
+    BLOG_LIKED("tb_blog", "liked", BLOG_LIKED_DELTA_KEY, BLOG_LIKED_FLUSHING_KEY, CACHE_BLOG_KEY, false),
+    BLOG_COMMENTS("tb_blog", "comments", BLOG_COMMENTS_DELTA_KEY, BLOG_COMMENTS_FLUSHING_KEY, CACHE_BLOG_KEY, false),
+    // 店铺缓存是逻辑过期的，删掉缓存会查不到店铺，写回后原地改成数据库里的新值
+    SHOP_SOLD("tb_shop", "sold", SHOP_SOLD_DELTA_KEY, SHOP_SOLD_FLUSHING_KEY, CACHE_SHOP_KEY, true),
+    SHOP_COMMENTS("tb_shop", "comments", SHOP_COMMENTS_DELTA_KEY, SHOP_COMMENTS_FLUSHING_KEY, CACHE_SHOP_KEY, true);
+
+    private final String table;
+
+    private final String column;
+
+    private final String deltaKey;
+
+    private final String flushingKey;
+
+    /**
+     * 写回后需要刷新的缓存前缀，为 null 表示没有缓存
+     */
+    private final String cachePrefix;
+
+    /**
+     * 缓存是否是逻辑过期格式(RedisData)：是则原地更新计数，否则删除
+     */
+    private final boolean logicalExpire;
+
+    CounterType(String table, String column, String deltaKey, String flushingKey, String cachePrefix,
+                boolean logicalExpire) {
+        this.table = table;
+        this.column = column;
+        this.deltaKey = deltaKey;
+        this.flushingKey = flushingKey;
+        this.cachePrefix = cachePrefix;
+        this.logicalExpire = logicalExpire;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public String getDeltaKey() {
+        return deltaKey;
+    }
+
+    public String getFlushingKey() {
+        return flushingKey;
+    }
+
+    public String getCachePrefix() {
+        return cachePrefix;
+    }
+
+    public boolean isLogicalExpire() {
+        return logicalExpire;
+    }
+}
@@ -0,0 +1,171 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Pattern;
+
+/**
+ * @author codeep
+ * @date 2023/8/26 9:30
+ * @description: 把本地文件写到 HTTP 响应，替代 nginx 托管上传的图片
+ * 1. 支持 Tomcat 的 sendfile 时只设置请求属性，由 Tomcat 在请求线程返回后用 sendfile 直接从页缓存发到 socket，不经过 JVM 堆
+ * 2. 否则用 FileChannel.transferTo 分块写到输出流
+ * 按内容寻址的文件(文件名以 64 位十六进制的 SHA-256 开头)内容永不变化，ETag 就是文件名，缓存一年；其他文件用 大小-修改时间 作为弱 ETag，缓存一天
+ * 支持 If-None-Match / If-Modified-Since 返回 304，支持单个 Range 区间(多区间按整个文件返回，符合规范)和 If-Range
+ */
+public class FileSender {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final Pattern CONTENT_HASH = Pattern.compile("^[0-9a-f]{64}([._].*)?$");
+
+    private static final long IMMUTABLE_MAX_AGE = 365L * 24 * 3600;
+    private static final long DEFAULT_MAX_AGE = 24L * 3600;
+
+    private FileSender() {
+    }
+
+    /**
+     * 发送文件
+     * @param path 文件，调用方保证在允许访问的目录下
+     */
+    public static void send(Path path, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (path == null || !Files.isRegularFile(path)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String fileName = path.getFileName().toString();
+        long length = Files.size(path);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        boolean immutable = CONTENT_HASH.matcher(fileName).matches();
+        String etag = immutable
+                ? "\"" + fileName + "\""
+                : "W/\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        // 1. 缓存头，协商缓存命中直接 304(checkNotModified 会写好 ETag、Last-Modified 和状态码)
+        response.setHeader(HttpHeaders.CACHE_CONTROL, immutable
+                ? "public, max-age=" + IMMUTABLE_MAX_AGE + ", immutable"
+                : "public, max-age=" + DEFAULT_MAX_AGE);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+        // 只有位图按原类型返回，其余(包括 svg、html 这类能执行脚本的)一律当作附件下载，并禁止浏览器嗅探类型
+        MediaType mediaType = contentTypeOf(fileName);
+        response.setContentType(mediaType.toString());
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        if (!isImage(mediaType)) {
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment");
+        }
+        // 2. 区间请求，If-Range 不匹配时按整个文件返回
+        long start = 0;
+        long end = length;
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null || ifRange.equals(etag)) {
+            long[] range = parseRange(request.getHeader(HttpHeaders.RANGE), length);
+            if (range != null && range.length == 0) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (range != null) {
+                start = range[0];
+                end = range[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + length);
+            }
+        }
+        response.setContentLengthLong(end - start);
+        if ("HEAD".equalsIgnoreCase(request.getMethod()) || start == end) {
+            return;
+        }
+        // 3. 交给 Tomcat sendfile，或者自己 transferTo
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            return;
+        }
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position < end) {
+                long n = in.transferTo(position, end - position, out);
+                if (n <= 0) {
+                    break;
+                }
+                position += n;
+            }
+        }
+    }
+
+    /**
+     * 按文件名推断的类型，不是位图的都按二进制流处理
+     */
+    static MediaType contentTypeOf(String fileName) {
+        return MediaTypeFactory.getMediaType(fileName).filter(FileSender::isImage).orElse(MediaType.APPLICATION_OCTET_STREAM);
+    }
+
+    private static boolean isImage(MediaType mediaType) {
+        return "image".equals(mediaType.getType()) && !mediaType.getSubtype().contains("svg");
+    }
+
+    /**
+     * 解析 Range 头
+     * @param header Range 头，例如 bytes=0-99、bytes=100-、bytes=-100
+     * @param length 文件长度
+     * @return null 表示返回整个文件(没有 Range、格式不认识或者多个区间)；空数组表示区间不可满足；否则是 [start, end)
+     */
+    static long[] parseRange(String header, long length) {
+        if (StrUtil.isBlank(header) || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // 最后 n 个字节
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return new long[0];
+                }
+                return new long[]{Math.max(0, length - suffix), length};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last) + 1;
+            if (end <= start) {
+                // 结束位置在开始位置之前，语法上就是无效的，忽略
+                return null;
+            }
+            if (start >= length) {
+                return new long[0];
+            }
+            return new long[]{start, Math.min(end, length)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.hmdp.utils;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author codeep
  * @date 2023/8/6 9:32
@@ -14,6 +16,28 @@ public interface ILock {
      */
     boolean tryLock(long timeoutSec);
 
+    /**
+     * 在指定的等待时间内反复尝试获取锁
+     * @param waitMillis 最长等待时间(毫秒)
+     * @param timeoutSec 锁持有的超时时间，到期自动释放
+     * @return true 表示获取锁成功，false 代表等待超时
+     */
+    default boolean tryLock(long waitMillis, long timeoutSec) {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (!tryLock(timeoutSec)) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(20);
+            } catch (InterruptedException e) {
+                // 保留中断标记，交给上层处理
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
 
     /**
      * 释放锁，防止出现死锁问题
@@ -0,0 +1,204 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import static com.hmdp.utils.RedisConstants.IMAGE_REF_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_IMAGE_TTL;
+import static com.hmdp.utils.RedisConstants.LOCK_WAIT_MILLIS;
+
+/**
+ * @author codeep
+ * @date 2023/8/24 9:40
+ * @description: 按内容寻址的图片存储
+ * 上传的数据流边读边算 SHA-256，同时经 NIO 通道写进临时文件，不在内存里攒整张图片；写完后以摘要作为文件名原子地移动到 /blogs/{h0h1}/{h2h3}/{sha256}.{后缀}
+ * 同一张图片重复上传只保留一份文件，Redis 的 hash 里记录每个文件被引用的次数，删除时引用数归零才真正删除文件
+ * 登记引用和删除文件在同一把按文件加的锁里完成，避免删除和重新上传同一张图片交错导致引用还在文件却没了
+ * 引入内容寻址之前上传的文件(UUID 文件名)没有引用计数，删除时保持原来的行为直接删除；原图删除时一并删除缩略图
+ */
+@Slf4j
+@Component
+public class ImageStore {
+
+    /**
+     * 只保留位图格式的后缀，html、svg 之类的后缀会让文件在本站域名下被当成可执行的内容返回
+     */
+    private static final Pattern SUFFIX = Pattern.compile("jpg|jpeg|png|gif|webp|bmp");
+
+    /**
+     * store 生成的原图文件名：64 位十六进制的 SHA-256 加可选的后缀，缩略图带 _w 后缀，不匹配
+     */
+    private static final Pattern ORIGINAL = Pattern.compile("[0-9a-f]{64}(\\.(jpg|jpeg|png|gif|webp|bmp))?");
+
+    private static final String TMP_DIR = "tmp";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final Path root;
+
+    public ImageStore(StringRedisTemplate stringRedisTemplate, @Value("${hmdp.image.root:imgs}") String root) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.root = Paths.get(root).toAbsolutePath().normalize();
+    }
+
+    /**
+     * 保存图片，内容相同的图片返回已有的路径
+     * @param in 图片数据流，读完后关闭
+     * @param originalFilename 原始文件名，只用来取后缀
+     * @return 相对于图片根目录的路径，例如 /blogs/ab/cd/{sha256}.jpg
+     */
+    public String store(InputStream in, String originalFilename) throws IOException {
+        // 1. 边写临时文件边计算摘要
+        Path tmpDir = Files.createDirectories(root.resolve(TMP_DIR));
+        Path tmp = Files.createTempFile(tmpDir, "upload-", ".part");
+        try {
+            String hash = copyAndDigest(in, tmp);
+            String name = objectName(hash, originalFilename);
+            Path target = resolve(name);
+            // 2. 加锁后登记引用，文件不存在才移动过去，已存在说明是重复上传
+            ILock lock = lockOf(name);
+            if (!lock.tryLock(LOCK_WAIT_MILLIS * 10, LOCK_IMAGE_TTL)) {
+                throw new IOException("图片正在被其他请求处理，请稍后重试");
+            }
+            try {
+                if (Files.exists(target)) {
+                    log.debug("重复上传的图片，复用 {}", name);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                }
+                stringRedisTemplate.opsForHash().increment(IMAGE_REF_KEY, name, 1);
+            } finally {
+                lock.unlock();
+            }
+            return name;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 释放一次引用，引用数归零时删除文件
+     * @param name store 返回的路径
+     * @return false 表示路径不合法
+     */
+    public boolean release(String name) throws IOException {
+        Path target = resolve(name);
+        if (target == null || Files.isDirectory(target)) {
+            return false;
+        }
+        String field = StrUtil.addPrefixIfNot(name.replace('\\', '/'), "/");
+        ILock lock = lockOf(field);
+        if (!lock.tryLock(LOCK_WAIT_MILLIS * 10, LOCK_IMAGE_TTL)) {
+            throw new IOException("图片正在被其他请求处理，请稍后重试");
+        }
+        try {
+            // 没有引用记录的是旧文件，直接删除
+            if (Boolean.TRUE.equals(stringRedisTemplate.opsForHash().hasKey(IMAGE_REF_KEY, field))) {
+                long refs = stringRedisTemplate.opsForHash().increment(IMAGE_REF_KEY, field, -1);
+                if (refs > 0) {
+                    return true;
+                }
+                stringRedisTemplate.opsForHash().delete(IMAGE_REF_KEY, field);
+            }
+            Files.deleteIfExists(target);
+            for (int width : SystemConstants.IMAGE_VARIANT_WIDTHS) {
+                Files.deleteIfExists(resolve(variantName(field, width)));
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把相对路径解析到图片根目录下，越出根目录或者指向临时目录的返回 null
+     */
+    public Path resolve(String name) {
+        if (StrUtil.isBlank(name)) {
+            return null;
+        }
+        Path path = root.resolve(StrUtil.removePrefix(name.replace('\\', '/'), "/")).normalize();
+        return path.startsWith(root) && !path.equals(root) && !path.startsWith(root.resolve(TMP_DIR)) ? path : null;
+    }
+
+    /**
+     * 流式复制到文件，同时计算 SHA-256
+     * @param in 数据流
+     * @param target 目标文件，必须已存在或可创建
+     * @return 十六进制的摘要
+     */
+    static String copyAndDigest(InputStream in, Path target) throws IOException {
+        MessageDigest digest = sha256();
+        try (ReadableByteChannel src = Channels.newChannel(new DigestInputStream(in, digest));
+             FileChannel dst = FileChannel.open(target, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            long n;
+            while ((n = dst.transferFrom(src, position, 1 << 20)) > 0) {
+                position += n;
+            }
+            dst.force(false);
+        }
+        return HexUtil.encodeHexStr(digest.digest());
+    }
+
+    /**
+     * 按摘要生成路径，前两级目录取摘要的前 4 位，每级 256 个子目录；后缀不在白名单里的不带后缀
+     */
+    static String objectName(String hash, String originalFilename) {
+        String suffix = StrUtil.subAfter(StrUtil.nullToEmpty(originalFilename), ".", true).toLowerCase(Locale.ROOT);
+        String name = StrUtil.format("/blogs/{}/{}/{}", hash.substring(0, 2), hash.substring(2, 4), hash);
+        return SUFFIX.matcher(suffix).matches() ? name + "." + suffix : name;
+    }
+
+    /**
+     * 是否是按内容保存的原图，只有原图可以生成缩略图
+     * @param name 路径
+     */
+    public static boolean isOriginal(String name) {
+        return ORIGINAL.matcher(StrUtil.subAfter(name, "/", true)).matches();
+    }
+
+    /**
+     * 缩略图和原图放在同一个目录：/blogs/ab/cd/{sha256}.jpg -> /blogs/ab/cd/{sha256}_w200.jpg
+     * ImageIO 不能写出的格式(例如 webp)统一生成 jpg
+     */
+    public static String variantName(String name, int width) {
+        int slash = name.lastIndexOf('/');
+        int dot = name.lastIndexOf('.');
+        String base = dot > slash ? name.substring(0, dot) : name;
+        String suffix = dot > slash ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+        String format = !suffix.isEmpty() && ImageIO.getImageWritersBySuffix(suffix).hasNext() ? suffix : "jpg";
+        return base + "_w" + width + "." + format;
+    }
+
+    private ILock lockOf(String name) {
+        return new SimpleRedisLock(stringRedisTemplate, "img:" + StrUtil.subAfter(name, "/", true));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
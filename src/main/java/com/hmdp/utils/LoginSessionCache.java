@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/10 9:20
+ * @description: 登录会话的本地缓存，token -> 会话，避免每个请求都去 Redis HGETALL + 反射封装 UserDTO
+ * 本地缓存时间很短，登出、踢人时通过 Redis 发布订阅通知所有节点立即失效，即使通知丢了最多也只会多活 LOGIN_SESSION_LOCAL_TTL 秒
+ */
+@Slf4j
+@Component
+public class LoginSessionCache implements MessageListener {
+
+    /**
+     * 单节点最多缓存的会话数，超出按 LRU 淘汰
+     */
+    private static final int CAPACITY = 100_000;
+
+    private final LRUCache<String, LoginSession> cache =
+            CacheUtil.newLRUCache(CAPACITY, TimeUnit.SECONDS.toMillis(LOGIN_SESSION_LOCAL_TTL));
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public LoginSessionCache(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 查询本地会话，注意 get 不刷新本地过期时间，保证过期后一定会回源 Redis 校验一次
+     * @param token 登录令牌
+     * @return 本地没有或已过期返回 null
+     */
+    public LoginSession get(String token) {
+        return cache.get(token, false);
+    }
+
+    /**
+     * 放入本地会话
+     * @param token 登录令牌
+     * @param user 用户信息，放进来之后当作只读对象使用
+     * @param ttlMillis 回源时和 HGETALL 一起查到的 PTTL，用来估算 Redis 过期时间
+     *                  小于 0(没有过期时间或已不存在)或者超过 LOGIN_USER_REFRESH_TTL(刚登录时写入的是 LOGIN_USER_TTL)都按 0 处理，
+     *                  本次请求立即刷新，把有效期收紧到 LOGIN_USER_REFRESH_TTL，保证空闲超时生效
+     * @return 新的会话
+     */
+    public LoginSession put(String token, UserDTO user, long ttlMillis) {
+        LoginSession session = new LoginSession(user);
+        if (ttlMillis > 0 && ttlMillis <= TimeUnit.MINUTES.toMillis(LOGIN_USER_REFRESH_TTL)) {
+            session.redisExpireAt = System.currentTimeMillis() + ttlMillis;
+        }
+        cache.put(token, session);
+        return session;
+    }
+
+    /**
+     * 判断是否需要刷新 Redis 中 token 的有效期：只有本地估算的剩余时间低于阈值才刷新
+     * 每次刷新都是把 TTL 设回 LOGIN_USER_REFRESH_TTL，任何节点的刷新只会延长不会缩短，所以本地估算值一定是下限，不会误判
+     * @param session 本地会话
+     * @return true 表示本次请求需要执行 EXPIRE
+     */
+    public boolean needRefresh(LoginSession session) {
+        long threshold = TimeUnit.MINUTES.toMillis(LOGIN_USER_REFRESH_THRESHOLD);
+        return session.redisExpireAt - System.currentTimeMillis() < threshold;
+    }
+
+    /**
+     * 刷新 Redis 中 token 的有效期，并记录本地估算的过期时间
+     * @param token 登录令牌
+     * @param session 本地会话
+     */
+    public void refresh(String token, LoginSession session) {
+        long now = System.currentTimeMillis();
+        stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_REFRESH_TTL, TimeUnit.MINUTES);
+        session.redisExpireAt = now + TimeUnit.MINUTES.toMillis(LOGIN_USER_REFRESH_TTL);
+    }
+
+    /**
+     * 让某个 token 在所有节点上失效(登出、踢人)，调用方负责删除 Redis 中的会话
+     * @param token 登录令牌
+     */
+    public void invalidate(String token) {
+        cache.remove(token);
+        stringRedisTemplate.convertAndSend(LOGIN_TOKEN_INVALIDATE_CHANNEL, token);
+    }
+
+    /**
+     * 收到其他节点的失效通知
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String token = new String(message.getBody(), StandardCharsets.UTF_8);
+        cache.remove(token);
+        log.debug("登录会话失效，token：{}", token);
+    }
+
+    /**
+     * 本地会话：用户信息 + 本地估算的 Redis 过期时间
+     */
+    public static class LoginSession {
+
+        private final UserDTO user;
+
+        /**
+         * 本地估算的 Redis 过期时间戳，0 表示未知，需要刷新
+         */
+        private volatile long redisExpireAt;
+
+        private LoginSession(UserDTO user) {
+            this.user = user;
+        }
+
+        public UserDTO getUser() {
+            return user;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.function.Function;
+
+/**
+ * @author codeep
+ * @date 2023/8/12 10:10
+ * @description: 限流拦截器，在 MvcConfig 中按路径注册，每个实例对应一条限流规则(按手机号、用户、IP 或者路由)
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private final RateLimiter rateLimiter;
+
+    /**
+     * 规则名称，作为限流键的前缀
+     */
+    private final String name;
+
+    /**
+     * 从请求中解析出限流维度的值，返回 null 表示这个请求不受该规则限制
+     */
+    private final Function<HttpServletRequest, String> keyResolver;
+
+    private final int capacity;
+
+    private final double permitsPerSecond;
+
+    public RateLimitInterceptor(RateLimiter rateLimiter, String name,
+                                Function<HttpServletRequest, String> keyResolver,
+                                int capacity, double permitsPerSecond) {
+        this.rateLimiter = rateLimiter;
+        this.name = name;
+        this.keyResolver = keyResolver;
+        this.capacity = capacity;
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 异步接口返回结果时的再次分派不是新请求，不重复计数
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        String key = keyResolver.apply(request);
+        if (StrUtil.isBlank(key)) {
+            return true;
+        }
+        if (rateLimiter.tryAcquire(name + ":" + key, capacity, permitsPerSecond)) {
+            return true;
+        }
+        // 429 Too Many Requests
+        response.setStatus(429);
+        return false;
+    }
+
+    /**
+     * 按请求参数限流，例如发送验证码按手机号
+     */
+    public static Function<HttpServletRequest, String> byParam(String param) {
+        return request -> request.getParameter(param);
+    }
+
+    /**
+     * 按登录用户限流，需要放在 RefreshTokenInterceptor 之后
+     */
+    public static Function<HttpServletRequest, String> byUser() {
+        return request -> {
+            UserDTO user = UserHolder.getUser();
+            return user == null ? null : user.getId().toString();
+        };
+    }
+
+    /**
+     * 按客户端 IP 限流
+     * 不直接读 X-Forwarded-For，客户端可以随意伪造；经过反向代理时由 server.forward-headers-strategy=native
+     * 开启 Tomcat 的 RemoteIpValve，只信任 internal-proxies 里的代理，从右往左取第一个不可信的地址作为 remoteAddr
+     */
+    public static Function<HttpServletRequest, String> byIp() {
+        return HttpServletRequest::getRemoteAddr;
+    }
+
+    /**
+     * 按路由限流，同一个资源(例如同一家店铺)所有人共享配额
+     */
+    public static Function<HttpServletRequest, String> byRoute() {
+        return HttpServletRequest::getRequestURI;
+    }
+}
@@ -0,0 +1,80 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * @author codeep
+ * @date 2023/8/12 9:30
+ * @description: 基于 Redis + Lua 令牌桶的分布式限流器
+ * 被 Redis 拒绝时会拿到还需要等待的时间，在这段时间内本地直接拒绝，刷接口的客户端大部分请求不会再访问 Redis
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+
+    private static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 本地预过滤：限流键 -> 本地封禁到期时间戳，数量有上限，超出按 LRU 淘汰
+     */
+    private final LRUCache<String, Long> blocked = CacheUtil.newLRUCache(100_000);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public RateLimiter(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 尝试获取一个令牌
+     * @param key 限流的键，例如 code:phone:13688668889
+     * @param capacity 桶容量，即允许的突发请求数
+     * @param permitsPerSecond 每秒补充的令牌数
+     * @return true 表示放行，false 表示被限流
+     */
+    public boolean tryAcquire(String key, int capacity, double permitsPerSecond) {
+        long now = System.currentTimeMillis();
+        // 1. 本地预过滤，还在封禁期内直接拒绝
+        Long blockedUntil = blocked.get(key, false);
+        if (blockedUntil != null && blockedUntil > now) {
+            return false;
+        }
+        // 2. 去 Redis 拿令牌，Redis 出问题时不影响正常业务，放行
+        Long wait;
+        try {
+            wait = stringRedisTemplate.execute(
+                    RATE_LIMIT_SCRIPT,
+                    Collections.singletonList(RATE_LIMIT_KEY + key),
+                    String.valueOf(capacity),
+                    String.valueOf(permitsPerSecond / 1000),
+                    String.valueOf(now),
+                    "1");
+        } catch (DataAccessException e) {
+            log.warn("限流脚本执行失败，放行：{}", key, e);
+            return true;
+        }
+        if (wait == null || wait <= 0) {
+            return true;
+        }
+        // 3. 记住需要等待的时间，期间本地直接拒绝
+        blocked.put(key, now + wait, wait);
+        return false;
+    }
+}
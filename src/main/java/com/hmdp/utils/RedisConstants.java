@@ -8,18 +8,92 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final Long LOGIN_USER_REFRESH_TTL = 30L;
+    public static final Long LOGIN_USER_REFRESH_THRESHOLD = 20L;
+    public static final Long LOGIN_SESSION_LOCAL_TTL = 60L;
+    public static final String LOGIN_TOKEN_INVALIDATE_CHANNEL = "login:token:invalidate";
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
+    public static final String LOGIN_REVOKED_CHANNEL = "login:revoked";
+    /**
+     * 手机号 -> 用户 id，空字符串表示这个手机号还没有注册
+     */
+    public static final String LOGIN_PHONE_KEY = "login:phone:";
+    public static final Long LOGIN_PHONE_TTL = 7L;
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final Long CACHE_SHOP_VOUCHER_TTL = 30L;
+    public static final String CACHE_SHOP_VOUCHER_KEY = "cache:voucher:shop:";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final Long LOCK_WAIT_MILLIS = 200L;
+    public static final Long LOCK_FLUSH_TTL = 30L;
+    public static final Long LOCK_SIGN_ARCHIVE_TTL = 600L;
+    public static final Long LOCK_IMAGE_TTL = 10L;
+
+    public static final String CACHE_REBUILD_SEMAPHORE = "cache:rebuild";
+    public static final int CACHE_REBUILD_PERMITS = 10;
+
+    public static final String RATE_LIMIT_KEY = "limit:";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    /**
+     * 展示库存(新建秒杀券时写入的、从数据库补上的)只保留一小段时间，补库存和下单交错、扣减失败导致的偏差过期后自然修正
+     */
+    public static final Long SECKILL_STOCK_SEED_TTL = 60L;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_DELTA_KEY = "blog:liked:delta";
+    public static final String BLOG_LIKED_FLUSHING_KEY = "blog:liked:flushing";
+    public static final String BLOG_COMMENTS_DELTA_KEY = "blog:comments:delta";
+    public static final String BLOG_COMMENTS_FLUSHING_KEY = "blog:comments:flushing";
+    public static final String SHOP_SOLD_DELTA_KEY = "shop:sold:delta";
+    public static final String SHOP_SOLD_FLUSHING_KEY = "shop:sold:flushing";
+    public static final String SHOP_COMMENTS_DELTA_KEY = "shop:comments:delta";
+    public static final String SHOP_COMMENTS_FLUSHING_KEY = "shop:comments:flushing";
+    public static final String COUNTER_BATCH_FIELD = "_batch";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FOLLOW_COUNT_KEY = "follow:count:";
+    public static final Long FOLLOW_CACHE_TTL = 7L;
+    /**
+     * 关注计数从数据库初始化后只保留一小段时间(秒)，查库和写入之间提交的关注造成的偏差过期后自然修正
+     */
+    public static final Long FOLLOW_COUNT_SEED_TTL = 60L;
+    /**
+     * 关注集合的占位成员，保证没有关注任何人时键也存在，和“未加载”区分开
+     */
+    public static final String FOLLOWS_PLACEHOLDER = "0";
+
     public static final String FEED_KEY = "feed:";
+    public static final int FEED_CAPACITY = 1000;
+    public static final String FEED_OUTBOX_KEY = "feed:out:";
+    public static final String FEED_BIG_AUTHORS_KEY = "feed:big";
+    public static final long FEED_PUSH_THRESHOLD = 5000L;
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_CHANNEL = "shop:geo:changed";
+    public static final String SHOP_NAME_CHANNEL = "shop:name:changed";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final Long USER_SIGN_ARCHIVED_TTL = 40L;
+
+    public static final String UV_KEY = "uv:";
+    public static final Long UV_TTL = 35L;
+    public static final Long UV_MERGED_TTL = 10L;
+
+    public static final String REFDATA_VERSION_KEY = "refdata:version:";
+    public static final String REFDATA_CHANGED_CHANNEL = "refdata:changed";
+
+    /**
+     * 图片路径 -> 引用次数
+     */
+    public static final String IMAGE_REF_KEY = "img:ref";
 }
@@ -0,0 +1,94 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author codeep
+ * @date 2023/8/9 10:12
+ * @description: 基于 Redis hash + Lua 实现的分布式读写锁，读读共享、读写互斥、写写互斥
+ * 典型场景：缓存重建时拿读锁(多个重建可以共存)，更新数据库 + 删缓存时拿写锁(独占)，避免重建把旧数据写回缓存
+ */
+public class RedisReadWriteLock {
+
+    private static final String KEY_PREFIX = "rwlock:";
+    private static final String ID_PREFIX = UUID.randomUUID().toString(true) + "-";
+    private static final DefaultRedisScript<Long> READ_LOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> WRITE_LOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+
+    static {
+        READ_LOCK_SCRIPT = new DefaultRedisScript<>();
+        READ_LOCK_SCRIPT.setLocation(new ClassPathResource("rwlock_read.lua"));
+        READ_LOCK_SCRIPT.setResultType(Long.class);
+        WRITE_LOCK_SCRIPT = new DefaultRedisScript<>();
+        WRITE_LOCK_SCRIPT.setLocation(new ClassPathResource("rwlock_write.lua"));
+        WRITE_LOCK_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("rwlock_unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final String key;
+
+    public RedisReadWriteLock(StringRedisTemplate stringRedisTemplate, String name) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.key = KEY_PREFIX + name;
+    }
+
+    /**
+     * 获取读锁，每次调用返回一个新的锁对象，持有者标识记录在锁对象上
+     */
+    public ILock readLock() {
+        return new Lock(READ_LOCK_SCRIPT);
+    }
+
+    /**
+     * 获取写锁，每次调用返回一个新的锁对象，持有者标识记录在锁对象上
+     */
+    public ILock writeLock() {
+        return new Lock(WRITE_LOCK_SCRIPT);
+    }
+
+    private class Lock implements ILock {
+
+        private final DefaultRedisScript<Long> lockScript;
+
+        private String owner;
+
+        private Lock(DefaultRedisScript<Long> lockScript) {
+            this.lockScript = lockScript;
+        }
+
+        @Override
+        public boolean tryLock(long timeoutSec) {
+            String threadId = ID_PREFIX + Thread.currentThread().getId();
+            Long result = stringRedisTemplate.execute(
+                    lockScript,
+                    Collections.singletonList(key),
+                    threadId, String.valueOf(TimeUnit.SECONDS.toMillis(timeoutSec)));
+            // 防止拆箱 NPE
+            if (result != null && result == 1L) {
+                owner = threadId;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void unlock() {
+            if (owner == null) {
+                return;
+            }
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), owner);
+            owner = null;
+        }
+    }
+}
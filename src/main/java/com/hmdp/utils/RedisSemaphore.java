@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author codeep
+ * @date 2023/8/9 14:30
+ * @description: 基于 Redis zset + Lua 实现的分布式计数信号量，用来限制整个集群同时进行的某类操作数量(例如缓存重建查库)
+ * 每个许可带有过期时间，持有者宕机没有归还时也会被自动回收
+ */
+public class RedisSemaphore {
+
+    private static final String KEY_PREFIX = "semaphore:";
+    private static final String ID_PREFIX = UUID.randomUUID().toString(true) + "-";
+    private static final DefaultRedisScript<Long> ACQUIRE_SCRIPT;
+
+    static {
+        ACQUIRE_SCRIPT = new DefaultRedisScript<>();
+        ACQUIRE_SCRIPT.setLocation(new ClassPathResource("semaphore_acquire.lua"));
+        ACQUIRE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final String key;
+
+    private final int permits;
+
+    public RedisSemaphore(StringRedisTemplate stringRedisTemplate, String name, int permits) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.key = KEY_PREFIX + name;
+        this.permits = permits;
+    }
+
+    /**
+     * 尝试获取一个许可
+     * @param timeoutSec 许可持有的超时时间，到期自动回收
+     * @return 获取成功返回许可标识(释放时需要传回)，许可已发完返回 null
+     */
+    public String tryAcquire(long timeoutSec) {
+        // 每次获取都生成独立的标识，同一线程也可以持有多个许可
+        String permitId = ID_PREFIX + UUID.randomUUID().toString(true);
+        Long result = stringRedisTemplate.execute(
+                ACQUIRE_SCRIPT,
+                Collections.singletonList(key),
+                permitId,
+                String.valueOf(permits),
+                String.valueOf(System.currentTimeMillis()),
+                String.valueOf(TimeUnit.SECONDS.toMillis(timeoutSec)));
+        return result != null && result == 1L ? permitId : null;
+    }
+
+    /**
+     * 归还许可
+     * @param permitId tryAcquire 返回的许可标识
+     */
+    public void release(String permitId) {
+        if (permitId == null) {
+            return;
+        }
+        // 只会删除自己的许可，ZREM 本身就是原子的
+        stringRedisTemplate.opsForZSet().remove(key, permitId);
+    }
+}
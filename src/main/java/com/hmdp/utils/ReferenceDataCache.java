@@ -0,0 +1,194 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.REFDATA_CHANGED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.REFDATA_VERSION_KEY;
+
+/**
+ * @author codeep
+ * @date 2023/8/23 9:20
+ * @description: 小型字典表(店铺类型等)的本地只读快照
+ * 每张表注册一个加载函数，加载后直接序列化成 Result.ok(list) 的 JSON 字节，请求时原样写出，不查库、不访问 Redis、也不再做序列化
+ * 数据变更时调用 changed(name)：版本号 +1 并广播，各节点收到后重新加载；广播丢失时由定时的版本号检查兜底
+ * 快照整体替换，读线程拿到的永远是一份完整的数据
+ */
+@Slf4j
+@Component
+public class ReferenceDataCache implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ObjectMapper objectMapper;
+
+    private final Map<String, Supplier<List<?>>> loaders = new LinkedHashMap<>();
+
+    /**
+     * 名称 -> 快照，整体替换，读取不加锁
+     */
+    private volatile Map<String, Snapshot> snapshots = Collections.emptyMap();
+
+    public ReferenceDataCache(StringRedisTemplate stringRedisTemplate, ObjectMapper objectMapper) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 注册一张字典表并立即加载
+     * @param name 名称，同时也是变更通知里使用的名称
+     * @param loader 加载全部数据的函数，返回的顺序就是响应里的顺序
+     */
+    public synchronized void register(String name, Supplier<List<?>> loader) {
+        loaders.put(name, loader);
+        reload(name);
+    }
+
+    /**
+     * 获取预先序列化好的 Result.ok(list) 响应体，调用方不能修改返回的数组
+     * @param name 名称
+     * @return JSON 字节
+     */
+    public byte[] getJson(String name) {
+        return snapshot(name).json;
+    }
+
+    /**
+     * 获取快照中的数据，供需要在代码里查字典的地方使用
+     * @param name 名称
+     * @return 不可修改的列表
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> getList(String name) {
+        return (List<T>) snapshot(name).data;
+    }
+
+    /**
+     * 数据变更后调用：版本号 +1，并通知所有节点(包括自己)重新加载
+     * @param name 名称
+     */
+    public void changed(String name) {
+        stringRedisTemplate.opsForValue().increment(REFDATA_VERSION_KEY + name);
+        stringRedisTemplate.convertAndSend(REFDATA_CHANGED_CHANNEL, name);
+    }
+
+    /**
+     * 重新加载一张字典表，替换快照
+     * @param name 名称
+     */
+    public synchronized void reload(String name) {
+        Supplier<List<?>> loader = loaders.get(name);
+        if (loader == null) {
+            return;
+        }
+        // 1. 先读版本号再加载，加载期间发生的变更会在下一次检查时被发现
+        long version = currentVersion(name);
+        List<?> data = Collections.unmodifiableList(new ArrayList<>(loader.get()));
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(Result.ok(data));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("字典表序列化失败：" + name, e);
+        }
+        // 2. 复制一份再整体替换
+        Map<String, Snapshot> next = new HashMap<>(snapshots);
+        next.put(name, new Snapshot(version, data, json));
+        snapshots = Collections.unmodifiableMap(next);
+        log.debug("字典表 {} 已加载，版本 {}，共 {} 条", name, version, data.size());
+    }
+
+    /**
+     * 收到变更通知
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        reloadQuietly(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 定时比对版本号，兜底处理丢失的变更通知；一次 MGET 检查所有字典表
+     */
+    @Scheduled(fixedDelay = 60000L)
+    public void checkVersions() {
+        List<String> names;
+        synchronized (this) {
+            names = new ArrayList<>(loaders.keySet());
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(names.size());
+        for (String name : names) {
+            keys.add(REFDATA_VERSION_KEY + name);
+        }
+        List<String> versions = stringRedisTemplate.opsForValue().multiGet(keys);
+        if (versions == null) {
+            return;
+        }
+        Map<String, Snapshot> current = snapshots;
+        for (int i = 0; i < names.size(); i++) {
+            Snapshot snapshot = current.get(names.get(i));
+            if (snapshot == null || snapshot.version != parseVersion(versions.get(i))) {
+                reloadQuietly(names.get(i));
+            }
+        }
+    }
+
+    private void reloadQuietly(String name) {
+        try {
+            reload(name);
+        } catch (Exception e) {
+            // 保留旧快照，等下一次版本号检查重试
+            log.error("字典表 {} 重新加载失败", name, e);
+        }
+    }
+
+    private Snapshot snapshot(String name) {
+        Snapshot snapshot = snapshots.get(name);
+        if (snapshot == null) {
+            throw new IllegalStateException("字典表未注册：" + name);
+        }
+        return snapshot;
+    }
+
+    private long currentVersion(String name) {
+        try {
+            return parseVersion(stringRedisTemplate.opsForValue().get(REFDATA_VERSION_KEY + name));
+        } catch (Exception e) {
+            // Redis 不可用时照常加载，版本号记为 -1，恢复后的第一次检查会再加载一次
+            log.warn("读取字典表 {} 的版本号失败", name, e);
+            return -1;
+        }
+    }
+
+    private static long parseVersion(String version) {
+        return StrUtil.isBlank(version) ? 0 : Long.parseLong(version);
+    }
+
+    private static class Snapshot {
+
+        private final long version;
+
+        private final List<?> data;
+
+        private final byte[] json;
+
+        private Snapshot(long version, List<?> data, byte[] json) {
+            this.version = version;
+            this.data = data;
+            this.json = json;
+        }
+    }
+}
@@ -1,15 +1,16 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
 
@@ -17,14 +18,26 @@ import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
  * @author codeep
  * @date 2023/7/29 8:55
  * @description: 刷新 token 拦截器，目的是浏览所有页面都会更新 token 的过期时间，还要承担存用户信息到 ThreadLocal 的功能
- *
+ * 会话先查本地缓存，token 有效期也只在快到期时才刷新，稳定状态下一个请求不需要访问 Redis
  */
-public class RefreshTokenInterceptor implements HandlerInterceptor {
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
 
     private StringRedisTemplate stringRedisTemplate;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
+    private LoginSessionCache loginSessionCache;
+
+    private SignedTokenCodec signedTokenCodec;
+
+    private TokenRevocationList tokenRevocationList;
+
+    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate,
+                                   LoginSessionCache loginSessionCache,
+                                   SignedTokenCodec signedTokenCodec,
+                                   TokenRevocationList tokenRevocationList) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.loginSessionCache = loginSessionCache;
+        this.signedTokenCodec = signedTokenCodec;
+        this.tokenRevocationList = tokenRevocationList;
     }
 
     @Override
@@ -34,22 +47,54 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         if(StrUtil.isBlank(token)) {
             return true;
         }
-        // 2. 根据层次键 token 获取 Redis 中的用户信息
-        String key = LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
-        // 3. 判断用户是否存在，这里使用 IsEmpty 不用 null，因为返回的空 stringRedisTemplate 会自动包装成空的 map
-        if (userMap.isEmpty()) {
+        // 签名令牌直接在本地校验，不需要刷新有效期
+        if (SignedTokenCodec.isSigned(token)) {
+            UserDTO userDTO = signedTokenCodec.decode(token, System.currentTimeMillis() / 1000);
+            if (userDTO != null && !tokenRevocationList.isRevoked(SignedTokenCodec.signatureOf(token))) {
+                UserHolder.saveUser(userDTO);
+            }
             return true;
         }
+        // 2. 先查本地会话缓存
+        LoginSessionCache.LoginSession session = loginSessionCache.get(token);
+        if (session == null) {
+            // 3. 本地没有再根据层次键 token 获取 Redis 中的用户信息，顺带在同一个管道里查剩余有效期，
+            // 剩余时间充足就不用紧接着再 EXPIRE 一次
+            String key = LOGIN_USER_KEY + token;
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.hGetAll(key);
+                conn.pTtl(key);
+                return null;
+            });
+            Map<?, ?> userMap = (Map<?, ?>) results.get(0);
+            // 4. 判断用户是否存在，这里使用 IsEmpty 不用 null，因为不存在时 HGETALL 返回空的 map
+            if (userMap == null || userMap.isEmpty()) {
+                return true;
+            }
+            UserDTO userDTO = UserHashCodec.decode(userMap);
+            Long ttl = (Long) results.get(1);
+            session = loginSessionCache.put(token, userDTO, ttl == null ? 0 : ttl);
+        }
         // 5. 存在则将保存用户信息到 ThreadLocal 中
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-        UserHolder.saveUser(userDTO);
-        //6. 刷新 token 有效期
-        stringRedisTemplate.expire(key, 30, TimeUnit.MINUTES);
-        // 6. 放行
+        UserHolder.saveUser(session.getUser());
+        // 6. 刷新 token 有效期，本地估算剩余时间还很充足就跳过
+        if (loginSessionCache.needRefresh(session)) {
+            loginSessionCache.refresh(token, session);
+        }
+        // 7. 放行
         return true;
     }
 
+    /**
+     * 异步接口：请求线程返回时不会调用 afterCompletion，在这里移除用户，否则会残留在 Tomcat 的线程上
+     * 异步结果返回时会再分派一次请求，拦截器重新执行，afterCompletion 在那一次调用
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserHolder.removeUser();
+    }
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
         // 移除用户，防止内存泄漏
@@ -0,0 +1,210 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.slf4j.MDC;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * @author codeep
+ * @date 2023/8/29 9:10
+ * @description: 请求上下文：当前用户、链路 id、请求开始时间
+ * 三者放在一个不可变对象里，整个对象存在一个 ThreadLocal 中，跨线程传递时只需要拿一次引用、在另一个线程上设置一次，不复制任何字段
+ * 提交任务时用 wrap 系列方法捕获当前上下文，任务执行前装上、执行后恢复执行线程原来的上下文(线程池线程、CallerRuns 时的调用线程都不会被污染)
+ * 链路 id 同时写入日志的 MDC，日志格式里用 %X{traceId} 输出
+ * 请求线程上的上下文由 RequestContextFilter 建立和清除，UserHolder 只是读写其中的用户
+ */
+public final class RequestContext {
+
+    public static final String TRACE_ID = "traceId";
+
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<>();
+
+    private final UserDTO user;
+
+    private final String traceId;
+
+    private final long startTime;
+
+    private RequestContext(UserDTO user, String traceId, long startTime) {
+        this.user = user;
+        this.traceId = traceId;
+        this.startTime = startTime;
+    }
+
+    /**
+     * 创建一个请求的上下文，还没有用户
+     * @param traceId 链路 id
+     * @param startTime 请求开始时间(毫秒)
+     */
+    public static RequestContext create(String traceId, long startTime) {
+        return new RequestContext(null, traceId, startTime);
+    }
+
+    public UserDTO getUser() {
+        return user;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * 请求开始到现在的毫秒数
+     */
+    public long elapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * 替换用户，得到一个新的上下文
+     */
+    public RequestContext withUser(UserDTO user) {
+        return user == this.user ? this : new RequestContext(user, traceId, startTime);
+    }
+
+    /**
+     * 当前线程的上下文，可能为 null
+     */
+    public static RequestContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 设置当前线程的用户；不在请求中(定时任务、测试)时只带用户，清空用户后整个上下文一起移除
+     */
+    static void setUser(UserDTO user) {
+        RequestContext current = CURRENT.get();
+        if (current == null) {
+            if (user != null) {
+                CURRENT.set(new RequestContext(user, null, System.currentTimeMillis()));
+            }
+            return;
+        }
+        RequestContext next = current.withUser(user);
+        if (next.user == null && next.traceId == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(next);
+        }
+    }
+
+    /**
+     * 装上指定的上下文，null 表示清除
+     * @param context 上下文
+     */
+    public static void restore(RequestContext context) {
+        if (context == null) {
+            clear();
+            return;
+        }
+        CURRENT.set(context);
+        if (context.traceId != null) {
+            MDC.put(TRACE_ID, context.traceId);
+        } else {
+            MDC.remove(TRACE_ID);
+        }
+    }
+
+    /**
+     * 清除当前线程的上下文
+     */
+    public static void clear() {
+        CURRENT.remove();
+        MDC.remove(TRACE_ID);
+    }
+
+    /**
+     * 捕获当前上下文，在执行 task 的线程上装上
+     */
+    public static Runnable wrap(Runnable task) {
+        return wrap(CURRENT.get(), task);
+    }
+
+    /**
+     * 在执行 task 的线程上装上指定的上下文，用于在请求线程之外(例如 Lettuce 的回调里)提交任务
+     */
+    public static Runnable wrap(RequestContext context, Runnable task) {
+        return () -> {
+            RequestContext previous = CURRENT.get();
+            if (previous == context) {
+                task.run();
+                return;
+            }
+            restore(context);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    public static <T> Supplier<T> wrapSupplier(Supplier<T> task) {
+        return wrapSupplier(CURRENT.get(), task);
+    }
+
+    public static <T> Supplier<T> wrapSupplier(RequestContext context, Supplier<T> task) {
+        return () -> {
+            RequestContext previous = CURRENT.get();
+            if (previous == context) {
+                return task.get();
+            }
+            restore(context);
+            try {
+                return task.get();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    public static <T> Callable<T> wrapCallable(Callable<T> task) {
+        RequestContext context = CURRENT.get();
+        return () -> {
+            RequestContext previous = CURRENT.get();
+            if (previous == context) {
+                return task.call();
+            }
+            restore(context);
+            try {
+                return task.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * 包装 CompletableFuture 的 thenApply 等回调，回调可能在完成 future 的任意线程上执行
+     */
+    public static <T, R> Function<T, R> wrapFunction(Function<T, R> fn) {
+        RequestContext context = CURRENT.get();
+        return value -> {
+            RequestContext previous = CURRENT.get();
+            if (previous == context) {
+                return fn.apply(value);
+            }
+            restore(context);
+            try {
+                return fn.apply(value);
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * 包装执行器，每个任务都带上提交时的上下文，可以直接传给 CompletableFuture 的 xxxAsync 方法
+     */
+    public static Executor propagating(Executor executor) {
+        return command -> executor.execute(wrap(command));
+    }
+}
@@ -0,0 +1,63 @@
+package com.hmdp.utils;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * @author codeep
+ * @date 2023/8/29 10:05
+ * @description: 建立和清除请求线程上的 RequestContext
+ * 链路 id 优先用网关传来的 X-Trace-Id，没有就生成一个，并在响应头里带回去
+ * 异步接口结果返回时会再分派一次请求，那时从请求属性里取回同一个上下文(链路 id、开始时间不变)，用户由拦截器重新设置
+ * 不管请求怎么结束都在 finally 里清除，Tomcat 的线程上不会残留上一个请求的用户
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestContextFilter extends OncePerRequestFilter {
+
+    public static final String TRACE_ID_HEADER = "X-Trace-Id";
+
+    private static final String CONTEXT_ATTRIBUTE = RequestContext.class.getName();
+
+    private static final Pattern TRACE_ID = Pattern.compile("[0-9A-Za-z_-]{1,64}");
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        RequestContext context = (RequestContext) request.getAttribute(CONTEXT_ATTRIBUTE);
+        if (context == null) {
+            context = RequestContext.create(traceIdOf(request), System.currentTimeMillis());
+            request.setAttribute(CONTEXT_ATTRIBUTE, context);
+            response.setHeader(TRACE_ID_HEADER, context.getTraceId());
+        }
+        RequestContext.restore(context);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RequestContext.clear();
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    private static String traceIdOf(HttpServletRequest request) {
+        String traceId = request.getHeader(TRACE_ID_HEADER);
+        if (traceId != null && TRACE_ID.matcher(traceId).matches()) {
+            return traceId;
+        }
+        return Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+}
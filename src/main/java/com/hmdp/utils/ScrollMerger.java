@@ -0,0 +1,110 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ScrollResult;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/16 9:15
+ * @description: 多路有序 zset 结果的归并，用于推拉结合的 Feed 流(收件箱 + 多个大 V 的发件箱)
+ * 每一路都已经按 score 从大到小排好序，用小顶堆逐个取出，凑够一页就停止，不会把所有数据合并成一个大列表
+ * 游标语义和单个 zset 的滚动分页一致：(max, offset) 表示跳过 score 等于 max 的前 offset 个元素
+ */
+public class ScrollMerger {
+
+    private static final Comparator<Cursor> ORDER = (a, b) -> {
+        // score 大的在前，score 相同按 member 逆序(和 ZREVRANGEBYSCORE 的顺序一致)，同一个元素就会相邻，方便去重
+        int c = Double.compare(b.head.getScore(), a.head.getScore());
+        return c != 0 ? c : b.head.getValue().compareTo(a.head.getValue());
+    };
+
+    /**
+     * 归并出一页
+     * @param sources 每一路按 score 从大到小排序的结果，每一路至少要取 offset + size 个
+     * @param max 上一页最小的时间戳
+     * @param offset 上一页中与最小时间戳相同的元素个数
+     * @param size 每页数量
+     * @return list 为本页的 id(Long)，minTime 和 offset 为下一页的游标
+     */
+    public static ScrollResult merge(List<? extends Collection<ZSetOperations.TypedTuple<String>>> sources,
+                                     long max, int offset, int size) {
+        PriorityQueue<Cursor> heap = new PriorityQueue<>(Math.max(sources.size(), 1), ORDER);
+        for (Collection<ZSetOperations.TypedTuple<String>> source : sources) {
+            if (source == null) {
+                continue;
+            }
+            Iterator<ZSetOperations.TypedTuple<String>> it = source.iterator();
+            if (it.hasNext()) {
+                heap.add(new Cursor(it));
+            }
+        }
+        List<Long> ids = new ArrayList<>(size);
+        String lastValue = null;
+        double lastScore = Double.NaN;
+        int skipped = 0;
+        long minTime = max;
+        int os = 0;
+        while (ids.size() < size && !heap.isEmpty()) {
+            Cursor cursor = heap.poll();
+            ZSetOperations.TypedTuple<String> tuple = cursor.head;
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+            double score = tuple.getScore();
+            // 1. 同一篇笔记可能同时出现在收件箱和发件箱，相邻去重
+            if (score == lastScore && tuple.getValue().equals(lastValue)) {
+                continue;
+            }
+            lastValue = tuple.getValue();
+            lastScore = score;
+            long time = (long) score;
+            if (time > max) {
+                continue;
+            }
+            // 2. 跳过上一页已经返回过的、时间戳等于 max 的元素
+            if (time == max && skipped < offset) {
+                skipped++;
+                continue;
+            }
+            // 3. 输出并维护最小时间戳及其重复个数
+            ids.add(Long.valueOf(tuple.getValue()));
+            if (time == minTime) {
+                os++;
+            } else {
+                minTime = time;
+                os = 1;
+            }
+        }
+        // 本页最小时间戳仍然等于 max，说明还在同一批相同时间戳里，偏移量要累加
+        if (!ids.isEmpty() && minTime == max) {
+            os += offset;
+        }
+        ScrollResult r = new ScrollResult();
+        r.setList(ids);
+        r.setMinTime(minTime);
+        r.setOffset(os);
+        return r;
+    }
+
+    private static class Cursor {
+
+        private final Iterator<ZSetOperations.TypedTuple<String>> it;
+
+        private ZSetOperations.TypedTuple<String> head;
+
+        private Cursor(Iterator<ZSetOperations.TypedTuple<String>> it) {
+            this.it = it;
+            this.head = it.next();
+        }
+
+        private boolean advance() {
+            if (!it.hasNext()) {
+                return false;
+            }
+            head = it.next();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author codeep
+ * @date 2023/8/17 10:15
+ * @description: 店铺坐标的本地空间索引，Redis 不可用时兜底附近商铺查询，也可以直接用来省掉一次网络往返
+ * 每个店铺类型一份索引：按 0.01° 的经纬度网格分桶，桶号 = 纬度格 * 36000 + 经度格，同一纬度行的桶号是连续的
+ * 所有店铺按桶号排好序存在几个原始类型数组里，查询时每一行只需要一次二分查找，每家店铺占 28 字节(int 桶号 + long id + 2 个 double)
+ * 增量更新先写进一个小的增量表，查询时覆盖排好序的快照，增量积累到一定数量再合并成新快照
+ * 多节点之间通过 Redis 发布订阅同步店铺坐标的变更
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex implements MessageListener {
+
+    /**
+     * 网格边长(度)，约 1.1 km
+     */
+    private static final double CELL_DEGREES = 0.01;
+
+    private static final int LNG_CELLS = 36000;
+
+    private static final int LAT_CELLS = 18000;
+
+    /**
+     * 和 Redis GEO 用的地球半径保持一致，两边算出来的距离才对得上
+     */
+    private static final double EARTH_RADIUS = 6372797.560856;
+
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+    /**
+     * 最近邻查询的初始搜索半径(米)，找不够再翻倍
+     */
+    private static final double KNN_INITIAL_RADIUS = 1000;
+
+    /**
+     * 最近邻查询的最大搜索半径(米)，翻倍到这里还不够就返回已经找到的
+     */
+    private static final double KNN_MAX_RADIUS = 100_000;
+
+    /**
+     * 单次查询最多取前多少名，TopK 按 from + size 分配数组，防止页码过大撑爆内存
+     */
+    private static final int MAX_RESULTS = 2000;
+
+    /**
+     * 增量表超过这个数量就合并进快照
+     */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final Map<Long, TypeIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * 是否已经完成全量导入，没导入之前不能拿来兜底
+     */
+    private volatile boolean ready;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 用全量数据替换整个索引
+     * @param builder 全量店铺坐标
+     */
+    public void reset(Builder builder) {
+        Map<Long, TypeIndex> fresh = new HashMap<>();
+        builder.points.forEach((typeId, points) -> fresh.put(typeId, new TypeIndex(points.build())));
+        indexes.keySet().retainAll(fresh.keySet());
+        indexes.putAll(fresh);
+        ready = true;
+    }
+
+    /**
+     * 店铺坐标或类型发生变化
+     * @param id 店铺 id
+     * @param oldTypeId 变更前的类型，新增时为 null
+     * @param typeId 变更后的类型
+     * @param x 经度，为 null 表示从索引中移除
+     * @param y 纬度
+     */
+    public void move(Long id, Long oldTypeId, Long typeId, Double x, Double y) {
+        if (oldTypeId != null && !oldTypeId.equals(typeId)) {
+            TypeIndex old = indexes.get(oldTypeId);
+            if (old != null) {
+                old.remove(id);
+            }
+        }
+        if (typeId == null) {
+            return;
+        }
+        TypeIndex index = indexes.computeIfAbsent(typeId, k -> new TypeIndex(Snapshot.EMPTY));
+        if (x == null || y == null) {
+            index.remove(id);
+        } else {
+            index.upsert(id, x, y);
+        }
+    }
+
+    /**
+     * 查询半径范围内的店铺，按距离由近到远分页
+     * @param typeId 店铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param radius 半径(米)
+     * @param from 跳过的条数
+     * @param size 每页条数
+     * @return 当前页的店铺 id 和距离，from + size 超过 MAX_RESULTS 时返回空
+     */
+    public List<Neighbor> within(Long typeId, double x, double y, double radius, int from, int size) {
+        TypeIndex index = indexes.get(typeId);
+        if (index == null || from < 0 || size <= 0 || (long) from + size > MAX_RESULTS) {
+            return Collections.emptyList();
+        }
+        TopK topK = new TopK(from + size);
+        index.state.search(x, y, radius, topK);
+        return topK.page(from);
+    }
+
+    /**
+     * 查询距离最近的店铺，从 KNN_INITIAL_RADIUS 开始找不够就翻倍，最远到 KNN_MAX_RADIUS，按距离由近到远分页
+     * @param typeId 店铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param from 跳过的条数
+     * @param size 每页条数
+     * @return 当前页的店铺 id 和距离，from + size 超过 MAX_RESULTS 时返回空
+     */
+    public List<Neighbor> nearest(Long typeId, double x, double y, int from, int size) {
+        TypeIndex index = indexes.get(typeId);
+        if (index == null || from < 0 || size <= 0 || (long) from + size > MAX_RESULTS) {
+            return Collections.emptyList();
+        }
+        State state = index.state;
+        int need = from + size;
+        double radius = KNN_INITIAL_RADIUS;
+        while (true) {
+            TopK topK = new TopK(need);
+            int matched = state.search(x, y, radius, topK);
+            if (matched >= need || radius >= KNN_MAX_RADIUS) {
+                return topK.page(from);
+            }
+            radius = Math.min(radius * 2, KNN_MAX_RADIUS);
+        }
+    }
+
+    /**
+     * 生成坐标变更的广播消息：id,旧类型,新类型,经度,纬度，null 用空串表示
+     */
+    public static String message(Long id, Long oldTypeId, Long typeId, Double x, Double y) {
+        return id + "," + nullToEmpty(oldTypeId) + "," + nullToEmpty(typeId) + "," + nullToEmpty(x) + "," + nullToEmpty(y);
+    }
+
+    private static String nullToEmpty(Object o) {
+        return o == null ? "" : o.toString();
+    }
+
+    /**
+     * 收到坐标变更的广播(包括本节点自己发出的，重复应用没有副作用)
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(",", -1);
+        if (parts.length != 5) {
+            log.warn("无法识别的店铺坐标变更：{}", Arrays.toString(parts));
+            return;
+        }
+        move(Long.valueOf(parts[0]),
+                parts[1].isEmpty() ? null : Long.valueOf(parts[1]),
+                parts[2].isEmpty() ? null : Long.valueOf(parts[2]),
+                parts[3].isEmpty() ? null : Double.valueOf(parts[3]),
+                parts[4].isEmpty() ? null : Double.valueOf(parts[4]));
+    }
+
+    /**
+     * 和 Redis GEO 一样的球面距离公式
+     */
+    static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    private static int lngCell(double x) {
+        return Math.min(Math.max((int) Math.floor((x + 180) / CELL_DEGREES), 0), LNG_CELLS - 1);
+    }
+
+    private static int latCell(double y) {
+        return Math.min(Math.max((int) Math.floor((y + 90) / CELL_DEGREES), 0), LAT_CELLS - 1);
+    }
+
+    private static int cell(double x, double y) {
+        return latCell(y) * LNG_CELLS + lngCell(x);
+    }
+
+    /**
+     * 查询结果：店铺 id + 距离(米)
+     */
+    public static class Neighbor {
+
+        private final long id;
+
+        private final double distance;
+
+        private Neighbor(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+    }
+
+    /**
+     * 全量导入用的构建器，按类型收集坐标
+     */
+    public static class Builder {
+
+        private final Map<Long, Points> points = new HashMap<>();
+
+        public Builder add(Long typeId, long id, double x, double y) {
+            points.computeIfAbsent(typeId, k -> new Points()).add(id, x, y);
+            return this;
+        }
+    }
+
+    /**
+     * 可扩容的原始类型数组，避免导入时装箱
+     */
+    private static class Points {
+
+        private long[] ids = new long[16];
+
+        private double[] xs = new double[16];
+
+        private double[] ys = new double[16];
+
+        private int size;
+
+        private void add(long id, double x, double y) {
+            if (size == ids.length) {
+                int capacity = size << 1;
+                ids = Arrays.copyOf(ids, capacity);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+            }
+            ids[size] = id;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        private Snapshot build() {
+            return new Snapshot(ids, xs, ys, size);
+        }
+    }
+
+    /**
+     * 不可变的快照：按 (桶号, id) 排序的几个平行数组
+     */
+    private static class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(new long[0], new double[0], new double[0], 0);
+
+        private final int[] cells;
+
+        private final long[] ids;
+
+        private final double[] xs;
+
+        private final double[] ys;
+
+        private Snapshot(long[] ids, double[] xs, double[] ys, int size) {
+            // 桶号不超过 2^30，和下标一起塞进一个 long 排序，避免对象数组和比较器
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = ((long) cell(xs[i], ys[i]) << 32) | i;
+            }
+            Arrays.sort(order);
+            this.cells = new int[size];
+            this.ids = new long[size];
+            this.xs = new double[size];
+            this.ys = new double[size];
+            for (int i = 0; i < size; i++) {
+                int j = (int) order[i];
+                this.cells[i] = (int) (order[i] >>> 32);
+                this.ids[i] = ids[j];
+                this.xs[i] = xs[j];
+                this.ys[i] = ys[j];
+            }
+        }
+
+        /**
+         * 第一个桶号 >= cell 的下标
+         */
+        private int lowerBound(int cell) {
+            int lo = 0;
+            int hi = cells.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cells[mid] < cell) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * 快照 + 增量表，合并时整体替换，读线程拿到的始终是一份自洽的数据
+     */
+    private static class State {
+
+        private final Snapshot snapshot;
+
+        /**
+         * 新增或移动过的店铺 id -> {经度, 纬度}
+         */
+        private final Map<Long, double[]> upserts = new ConcurrentHashMap<>();
+
+        /**
+         * 被移除的店铺 id
+         */
+        private final Set<Long> removed = ConcurrentHashMap.newKeySet();
+
+        private State(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        private boolean dirty(long id) {
+            return !upserts.isEmpty() && upserts.containsKey(id) || !removed.isEmpty() && removed.contains(id);
+        }
+
+        /**
+         * 把半径范围内的店铺放进 topK
+         * @return 半径范围内的店铺总数
+         */
+        private int search(double x, double y, double radius, TopK topK) {
+            int matched = 0;
+            Snapshot s = snapshot;
+            // 1. 计算覆盖圆的网格范围
+            double dLat = radius / METERS_PER_DEGREE;
+            double maxLat = Math.min(Math.abs(y) + dLat, 89.999);
+            double dLng = dLat / Math.cos(Math.toRadians(maxLat));
+            int latFrom = latCell(y - dLat);
+            int latTo = latCell(y + dLat);
+            int lngFrom = dLng >= 180 ? 0 : lngCell(x - dLng);
+            int lngTo = dLng >= 180 ? LNG_CELLS - 1 : lngCell(x + dLng);
+            // 2. 每一行的桶号是连续的，二分找到起点后顺序扫描
+            for (int lat = latFrom; lat <= latTo; lat++) {
+                int hi = lat * LNG_CELLS + lngTo;
+                for (int i = s.lowerBound(lat * LNG_CELLS + lngFrom); i < s.cells.length && s.cells[i] <= hi; i++) {
+                    if (dirty(s.ids[i])) {
+                        continue;
+                    }
+                    double d = distance(x, y, s.xs[i], s.ys[i]);
+                    if (d <= radius) {
+                        matched++;
+                        topK.offer(s.ids[i], d);
+                    }
+                }
+            }
+            // 3. 增量表很小，直接遍历
+            for (Map.Entry<Long, double[]> entry : upserts.entrySet()) {
+                double[] point = entry.getValue();
+                double d = distance(x, y, point[0], point[1]);
+                if (d <= radius) {
+                    matched++;
+                    topK.offer(entry.getKey(), d);
+                }
+            }
+            return matched;
+        }
+    }
+
+    /**
+     * 单个类型的索引，写操作加锁，读操作无锁
+     */
+    private static class TypeIndex {
+
+        private volatile State state;
+
+        private TypeIndex(Snapshot snapshot) {
+            this.state = new State(snapshot);
+        }
+
+        private synchronized void upsert(long id, double x, double y) {
+            state.removed.remove(id);
+            state.upserts.put(id, new double[]{x, y});
+            compactIfNeeded();
+        }
+
+        private synchronized void remove(long id) {
+            state.upserts.remove(id);
+            state.removed.add(id);
+            compactIfNeeded();
+        }
+
+        /**
+         * 增量太多会拖慢每次查询，合并成新快照
+         */
+        private void compactIfNeeded() {
+            State current = state;
+            if (current.upserts.size() + current.removed.size() < COMPACT_THRESHOLD) {
+                return;
+            }
+            Snapshot s = current.snapshot;
+            Points points = new Points();
+            for (int i = 0; i < s.ids.length; i++) {
+                if (!current.dirty(s.ids[i])) {
+                    points.add(s.ids[i], s.xs[i], s.ys[i]);
+                }
+            }
+            current.upserts.forEach((id, point) -> points.add(id, point[0], point[1]));
+            state = new State(points.build());
+        }
+    }
+
+    /**
+     * 保留距离最近的 k 个结果，k 就是 from + size，一般很小，有序数组插入就够了
+     */
+    private static class TopK {
+
+        private final long[] ids;
+
+        private final double[] distances;
+
+        private int size;
+
+        private TopK(int k) {
+            this.ids = new long[k];
+            this.distances = new double[k];
+        }
+
+        private void offer(long id, double distance) {
+            int k = ids.length;
+            if (k == 0 || size == k && distance >= distances[k - 1]) {
+                return;
+            }
+            int i = size == k ? k - 1 : size++;
+            while (i > 0 && distances[i - 1] > distance) {
+                ids[i] = ids[i - 1];
+                distances[i] = distances[i - 1];
+                i--;
+            }
+            ids[i] = id;
+            distances[i] = distance;
+        }
+
+        private List<Neighbor> page(int from) {
+            if (size <= from) {
+                return Collections.emptyList();
+            }
+            List<Neighbor> list = new ArrayList<>(size - from);
+            for (int i = from; i < size; i++) {
+                list.add(new Neighbor(ids[i], distances[i]));
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author codeep
+ * @date 2023/8/18 9:30
+ * @description: 店铺名称的本地倒排索引，替代 LIKE '%name%' 的全表扫描
+ * 名称按字切分成单字和相邻两字(n-gram)，中英文一视同仁，查询时对关键字所有的两字组合的倒排表求交集，再用 contains 校验一遍去掉误命中
+ * 文档号按 评分 desc、销量 desc、id asc 的顺序分配，倒排表按文档号升序存在 int 数组里，求交集得到的结果天然就是排好序的，凑够一页即可停止
+ * 增量更新的处理方式和 ShopGeoIndex 一样：先进增量表，查询时覆盖快照，积累到一定数量再合并
+ */
+@Slf4j
+@Component
+public class ShopNameIndex implements MessageListener {
+
+    /**
+     * 增量表超过这个数量就合并进快照
+     */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    /**
+     * 单次搜索最多取前多少名，再往后的页直接返回空，防止页码过大时按 from + size 分配超大的列表
+     */
+    private static final int MAX_RESULTS = 1000;
+
+    private static final Comparator<Doc> RANK = Comparator.<Doc>comparingInt(doc -> -doc.score)
+            .thenComparingInt(doc -> -doc.sold)
+            .thenComparingLong(doc -> doc.id);
+
+    private volatile State state = new State(Snapshot.build(Collections.emptyList()));
+
+    /**
+     * 是否已经完成全量导入
+     */
+    private volatile boolean ready;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 用全量数据替换整个索引
+     * @param builder 全量店铺名称
+     */
+    public synchronized void reset(Builder builder) {
+        state = new State(Snapshot.build(builder.docs));
+        ready = true;
+    }
+
+    /**
+     * 新增或更新店铺名称、评分、销量
+     */
+    public synchronized void upsert(long id, String name, Integer score, Integer sold) {
+        State current = state;
+        current.removed.remove(id);
+        current.upserts.put(id, Doc.of(id, name, score, sold));
+        compactIfNeeded();
+    }
+
+    /**
+     * 从索引中移除店铺
+     */
+    public synchronized void remove(long id) {
+        State current = state;
+        current.upserts.remove(id);
+        current.removed.add(id);
+        compactIfNeeded();
+    }
+
+    /**
+     * 按名称关键字搜索，结果按 评分 desc、销量 desc 排序
+     * @param keyword 关键字，匹配名称的任意位置
+     * @param from 跳过的条数
+     * @param size 每页条数
+     * @return 当前页的店铺 id，只在前 MAX_RESULTS 名里分页
+     */
+    public List<Long> search(String keyword, int from, int size) {
+        String q = normalize(keyword);
+        if (q.isEmpty() || from < 0 || size <= 0 || from >= MAX_RESULTS) {
+            return Collections.emptyList();
+        }
+        State current = state;
+        int need = (int) Math.min((long) from + size, MAX_RESULTS);
+        List<Doc> hits = current.snapshot.search(q, need, current);
+        // 增量表很小，直接遍历
+        for (Doc doc : current.upserts.values()) {
+            if (doc.name.contains(q)) {
+                hits.add(doc);
+            }
+        }
+        hits.sort(RANK);
+        List<Long> ids = new ArrayList<>(need - from);
+        for (int i = from; i < Math.min(need, hits.size()); i++) {
+            ids.add(hits.get(i).id);
+        }
+        return ids;
+    }
+
+    /**
+     * 生成名称变更的广播消息：id \t 评分 \t 销量 \t 名称，名称放最后，里面有什么字符都不影响解析
+     */
+    public static String message(Long id, String name, Integer score, Integer sold) {
+        return id + "\t" + (score == null ? "" : score) + "\t" + (sold == null ? "" : sold) + "\t" + name;
+    }
+
+    /**
+     * 收到名称变更的广播(包括本节点自己发出的，重复应用没有副作用)
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\t", 4);
+        if (parts.length != 4) {
+            log.warn("无法识别的店铺名称变更：{}", Arrays.toString(parts));
+            return;
+        }
+        upsert(Long.parseLong(parts[0]), parts[3],
+                parts[1].isEmpty() ? null : Integer.valueOf(parts[1]),
+                parts[2].isEmpty() ? null : Integer.valueOf(parts[2]));
+    }
+
+    private void compactIfNeeded() {
+        State current = state;
+        if (current.upserts.size() + current.removed.size() < COMPACT_THRESHOLD) {
+            return;
+        }
+        Snapshot s = current.snapshot;
+        List<Doc> docs = new ArrayList<>(s.ids.length + current.upserts.size());
+        for (int i = 0; i < s.ids.length; i++) {
+            if (!current.dirty(s.ids[i])) {
+                docs.add(new Doc(s.ids[i], s.names[i], s.scores[i], s.solds[i]));
+            }
+        }
+        docs.addAll(current.upserts.values());
+        state = new State(Snapshot.build(docs));
+    }
+
+    /**
+     * 统一大小写，去掉空白，中文不受影响
+     */
+    static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 单字的 key 就是字符本身，两字的 key 是 (前一个字 << 16 | 后一个字)，前一个字不会是 0，两种 key 不会冲突
+     */
+    private static int gram(char first, char second) {
+        return first << 16 | second;
+    }
+
+    /**
+     * 全量导入用的构建器
+     */
+    public static class Builder {
+
+        private final List<Doc> docs = new ArrayList<>();
+
+        public Builder add(long id, String name, Integer score, Integer sold) {
+            docs.add(Doc.of(id, name, score, sold));
+            return this;
+        }
+    }
+
+    private static class Doc {
+
+        private final long id;
+
+        /**
+         * 规范化之后的名称
+         */
+        private final String name;
+
+        private final int score;
+
+        private final int sold;
+
+        private Doc(long id, String name, int score, int sold) {
+            this.id = id;
+            this.name = name;
+            this.score = score;
+            this.sold = sold;
+        }
+
+        private static Doc of(long id, String name, Integer score, Integer sold) {
+            return new Doc(id, normalize(name), score == null ? 0 : score, sold == null ? 0 : sold);
+        }
+    }
+
+    /**
+     * 不可变的快照：文档号就是排名，文档的各个字段存在平行数组里
+     */
+    private static class Snapshot {
+
+        private final long[] ids;
+
+        private final String[] names;
+
+        private final int[] scores;
+
+        private final int[] solds;
+
+        /**
+         * gram -> 升序的文档号
+         */
+        private final Map<Integer, int[]> postings;
+
+        private Snapshot(long[] ids, String[] names, int[] scores, int[] solds, Map<Integer, int[]> postings) {
+            this.ids = ids;
+            this.names = names;
+            this.scores = scores;
+            this.solds = solds;
+            this.postings = postings;
+        }
+
+        private static Snapshot build(List<Doc> docs) {
+            List<Doc> sorted = new ArrayList<>(docs);
+            sorted.sort(RANK);
+            int n = sorted.size();
+            long[] ids = new long[n];
+            String[] names = new String[n];
+            int[] scores = new int[n];
+            int[] solds = new int[n];
+            // 先统计每个 gram 的文档数，再一次性分配好 int 数组，避免装箱的 List<Integer>
+            Map<Integer, int[]> counts = new HashMap<>();
+            for (int doc = 0; doc < n; doc++) {
+                Doc d = sorted.get(doc);
+                ids[doc] = d.id;
+                names[doc] = d.name;
+                scores[doc] = d.score;
+                solds[doc] = d.sold;
+                forEachGram(d.name, doc, (gram, docNo) -> counts.computeIfAbsent(gram, k -> new int[1])[0]++);
+            }
+            Map<Integer, int[]> postings = new HashMap<>(counts.size() * 2);
+            Map<Integer, int[]> cursors = new HashMap<>(counts.size() * 2);
+            counts.forEach((gram, count) -> {
+                postings.put(gram, new int[count[0]]);
+                cursors.put(gram, new int[1]);
+            });
+            for (int doc = 0; doc < n; doc++) {
+                forEachGram(names[doc], doc, (gram, docNo) -> postings.get(gram)[cursors.get(gram)[0]++] = docNo);
+            }
+            return new Snapshot(ids, names, scores, solds, postings);
+        }
+
+        /**
+         * 遍历名称里不重复的单字和两字 gram，同一个文档的同一个 gram 只出现一次
+         */
+        private static void forEachGram(String name, int doc, GramConsumer consumer) {
+            Set<Integer> seen = new HashSet<>(name.length() * 4);
+            for (int i = 0; i < name.length(); i++) {
+                int unigram = name.charAt(i);
+                if (seen.add(unigram)) {
+                    consumer.accept(unigram, doc);
+                }
+                if (i + 1 < name.length()) {
+                    int bigram = gram(name.charAt(i), name.charAt(i + 1));
+                    if (seen.add(bigram)) {
+                        consumer.accept(bigram, doc);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 求所有 gram 倒排表的交集，按文档号(也就是排名)顺序校验，凑够 need 条就停
+         */
+        private List<Doc> search(String q, int need, State state) {
+            List<Doc> hits = new ArrayList<>(need);
+            // 1. 取出关键字的 gram 倒排表：单字查单字表，多字查两字表
+            List<int[]> lists = new ArrayList<>();
+            if (q.length() == 1) {
+                int[] list = postings.get((int) q.charAt(0));
+                if (list == null) {
+                    return hits;
+                }
+                lists.add(list);
+            } else {
+                for (int i = 0; i + 1 < q.length(); i++) {
+                    int[] list = postings.get(gram(q.charAt(i), q.charAt(i + 1)));
+                    if (list == null) {
+                        return hits;
+                    }
+                    lists.add(list);
+                }
+            }
+            // 2. 从最短的表开始，其余的表用二分往前推进
+            lists.sort(Comparator.comparingInt(list -> list.length));
+            int[] shortest = lists.get(0);
+            int[] cursors = new int[lists.size()];
+            outer:
+            for (int doc : shortest) {
+                for (int j = 1; j < lists.size(); j++) {
+                    int[] list = lists.get(j);
+                    int pos = Arrays.binarySearch(list, cursors[j], list.length, doc);
+                    if (pos < 0) {
+                        cursors[j] = -pos - 1;
+                        if (cursors[j] >= list.length) {
+                            break outer;
+                        }
+                        continue outer;
+                    }
+                    cursors[j] = pos + 1;
+                }
+                // 3. gram 都命中不代表连续出现，用 contains 校验；被更新过的文档以增量表为准
+                if (!names[doc].contains(q) || state.dirty(ids[doc])) {
+                    continue;
+                }
+                hits.add(new Doc(ids[doc], names[doc], scores[doc], solds[doc]));
+                if (hits.size() >= need) {
+                    break;
+                }
+            }
+            return hits;
+        }
+    }
+
+    @FunctionalInterface
+    private interface GramConsumer {
+        void accept(int gram, int doc);
+    }
+
+    /**
+     * 快照 + 增量表，合并时整体替换
+     */
+    private static class State {
+
+        private final Snapshot snapshot;
+
+        private final Map<Long, Doc> upserts = new ConcurrentHashMap<>();
+
+        private final Set<Long> removed = ConcurrentHashMap.newKeySet();
+
+        private State(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        private boolean dirty(long id) {
+            return !upserts.isEmpty() && upserts.containsKey(id) || !removed.isEmpty() && removed.contains(id);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+/**
+ * @author codeep
+ * @date 2023/8/11 10:05
+ * @description: 自包含的签名登录令牌，格式为 base64url(payload).base64url(HMAC-SHA256(payload 部分))
+ * payload 为 "id\n过期时间戳(秒)\nnickName\nicon"，校验完全在本地完成，不需要访问 Redis
+ * 校验时先在原字符串上比对签名(不解码、不产生中间字符串)，签名通过之后才解析 payload
+ */
+@Component
+public class SignedTokenCodec {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final char[] BASE64_URL =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    /**
+     * 32 字节的签名编码成不带填充的 base64url 固定是 43 个字符
+     */
+    private static final int SIGNATURE_LENGTH = 43;
+
+    private final SecretKeySpec key;
+
+    private final ThreadLocal<Mac> macHolder;
+
+    /**
+     * 每个线程复用的 ASCII 缓冲区，避免每次校验都 getBytes
+     */
+    private final ThreadLocal<byte[]> bufferHolder = ThreadLocal.withInitial(() -> new byte[512]);
+
+    private final ThreadLocal<byte[]> signatureHolder = ThreadLocal.withInitial(() -> new byte[32]);
+
+    public SignedTokenCodec(@Value("${hmdp.auth.secret:hmdp-default-secret-change-me}") String secret) {
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.macHolder = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("初始化 HMAC 失败", e);
+            }
+        });
+    }
+
+    /**
+     * 判断是否是签名令牌(普通的 Redis 令牌是不带 . 的 UUID)
+     */
+    public static boolean isSigned(String token) {
+        return token.indexOf('.') > 0;
+    }
+
+    /**
+     * 签发令牌
+     * @param user 用户信息
+     * @param expireAt 过期时间戳(秒)
+     * @return 令牌
+     */
+    public String encode(UserDTO user, long expireAt) {
+        String payload = user.getId() + "\n" + expireAt + "\n"
+                + StrUtil.nullToEmpty(user.getNickName()) + "\n" + StrUtil.nullToEmpty(user.getIcon());
+        String body = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        byte[] signature = sign(body, body.length());
+        return body + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+    }
+
+    /**
+     * 校验令牌并解析出用户信息
+     * @param token 令牌
+     * @param nowSecond 当前时间戳(秒)
+     * @return 签名不对、格式不对或者已经过期都返回 null
+     */
+    public UserDTO decode(String token, long nowSecond) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || token.length() - dot - 1 != SIGNATURE_LENGTH) {
+            return null;
+        }
+        // 1. 先校验签名，不通过就不用解析了
+        if (!verify(token, dot)) {
+            return null;
+        }
+        // 2. 解析 payload
+        String payload = new String(
+                Base64.getUrlDecoder().decode(token.substring(0, dot)), StandardCharsets.UTF_8);
+        String[] parts = payload.split("\n", -1);
+        if (parts.length != 4) {
+            return null;
+        }
+        // 3. 判断是否过期
+        if (Long.parseLong(parts[1]) <= nowSecond) {
+            return null;
+        }
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(Long.valueOf(parts[0]));
+        userDTO.setNickName(parts[2]);
+        userDTO.setIcon(parts[3]);
+        return userDTO;
+    }
+
+    /**
+     * 取出令牌的签名部分，用作吊销列表中的令牌标识
+     */
+    public static String signatureOf(String token) {
+        return token.substring(token.indexOf('.') + 1);
+    }
+
+    private boolean verify(String token, int dot) {
+        byte[] expected = sign(token, dot);
+        // 把期望的签名按 base64url 逐字符和令牌中的签名比对，恒定时间，不分配内存
+        int diff = 0;
+        int pos = dot + 1;
+        int i = 0;
+        for (; i + 3 <= expected.length; i += 3) {
+            int bits = (expected[i] & 0xFF) << 16 | (expected[i + 1] & 0xFF) << 8 | (expected[i + 2] & 0xFF);
+            diff |= token.charAt(pos++) ^ BASE64_URL[(bits >>> 18) & 0x3F];
+            diff |= token.charAt(pos++) ^ BASE64_URL[(bits >>> 12) & 0x3F];
+            diff |= token.charAt(pos++) ^ BASE64_URL[(bits >>> 6) & 0x3F];
+            diff |= token.charAt(pos++) ^ BASE64_URL[bits & 0x3F];
+        }
+        // 32 字节剩下 2 个字节，编码成 3 个字符
+        int bits = (expected[i] & 0xFF) << 16 | (expected[i + 1] & 0xFF) << 8;
+        diff |= token.charAt(pos++) ^ BASE64_URL[(bits >>> 18) & 0x3F];
+        diff |= token.charAt(pos++) ^ BASE64_URL[(bits >>> 12) & 0x3F];
+        diff |= token.charAt(pos) ^ BASE64_URL[(bits >>> 6) & 0x3F];
+        return diff == 0;
+    }
+
+    /**
+     * 对 text 的前 length 个字符(base64url，都是 ASCII)计算 HMAC，返回的是线程复用的数组，用完即弃
+     */
+    private byte[] sign(String text, int length) {
+        byte[] buffer = bufferHolder.get();
+        if (buffer.length < length) {
+            buffer = new byte[length];
+            bufferHolder.set(buffer);
+        }
+        for (int i = 0; i < length; i++) {
+            buffer[i] = (byte) text.charAt(i);
+        }
+        Mac mac = macHolder.get();
+        mac.update(buffer, 0, length);
+        byte[] signature = signatureHolder.get();
+        try {
+            mac.doFinal(signature, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("计算 HMAC 失败", e);
+        }
+        return signature;
+    }
+}
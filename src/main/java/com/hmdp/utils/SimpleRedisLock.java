@@ -20,6 +20,11 @@ public class SimpleRedisLock implements ILock {
 
     private String name;
 
+    /**
+     * 获取锁时记录下的持有者标识，释放时以它为准，这样锁可以交给别的线程(例如缓存重建线程)去释放
+     */
+    private String owner;
+
     private static final String KEY_PREFIX = "lock:";
     private static final String ID_PREFIX = UUID.randomUUID().toString(true) + "-";
     private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
@@ -44,15 +49,24 @@ public class SimpleRedisLock implements ILock {
         Boolean success = stringRedisTemplate.opsForValue()
                 .setIfAbsent(KEY_PREFIX + name, threadId, timeoutSec, TimeUnit.SECONDS);
         // 防止拆箱 NPE
-        return Boolean.TRUE.equals(success);
+        if (Boolean.TRUE.equals(success)) {
+            owner = threadId;
+            return true;
+        }
+        return false;
     }
 
     @Override
     public void unlock() {
+        // 没有成功获取过锁就不用释放了
+        if (owner == null) {
+            return;
+        }
         stringRedisTemplate.execute(
                 UNLOCK_SCRIPT,
                 Collections.singletonList(KEY_PREFIX + name),
-                ID_PREFIX + Thread.currentThread().getId());
+                owner);
+        owner = null;
     }
 
     /**
@@ -1,8 +1,19 @@
 package com.hmdp.utils;
 
 public class SystemConstants {
-    public static final String IMAGE_UPLOAD_DIR = "D:\\lesson\\nginx-1.18.0\\html\\hmdp\\imgs\\";
     public static final String USER_NICK_NAME_PREFIX = "NJFUer_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    /**
+     * 附近商铺的搜索半径(米)
+     */
+    public static final double SHOP_GEO_RADIUS = 5000;
+    /**
+     * 附近商铺最多翻到第几页，再往后直接返回空，防止页码过大时 COUNT 和结果数组跟着变大
+     */
+    public static final int SHOP_GEO_MAX_PAGE = 100;
+    /**
+     * 博客图片缩略图的宽度(像素)，从小到大
+     */
+    public static final int[] IMAGE_VARIANT_WIDTHS = {200, 400, 800};
 }
@@ -0,0 +1,266 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/25 9:15
+ * @description: 博客图片缩略图的生成
+ * 上传成功后把图片丢进一个有界的后台线程池生成各个宽度的缩略图，上传接口不等待；队列满了直接丢弃，不拖慢上传
+ * 请求缩略图时如果还没生成(被丢弃、还在排队、历史图片)，就在请求线程里现场生成，同一张缩略图同时只会生成一次；
+ * 现场生成的并发数有上限，超出时先返回原图，生成交给后台队列
+ * 大图先用 ImageReader 的子采样按整数倍抽样解码，解码出来的图只比目标大两倍左右，省掉大部分解码时间和内存，再做一次双线性缩放
+ * 只为 store 保存的原图(内容哈希文件名)生成缩略图，缩略图、旧文件、无法解码的文件一律返回 null，避免缩略图的缩略图无限写盘
+ */
+@Slf4j
+@Component
+public class ThumbnailGenerator {
+
+    /**
+     * 像素数超过这个值的图片不生成缩略图，防止解码撑爆内存
+     */
+    private static final long MAX_PIXELS = 50_000_000L;
+
+    /**
+     * 请求线程上同时现场生成缩略图的数量
+     */
+    private static final int LAZY_CONCURRENCY = 2;
+
+    private final ImageStore imageStore;
+
+    private final Semaphore lazyPermits = new Semaphore(LAZY_CONCURRENCY);
+
+    private final ThreadPoolExecutor executor = new ContextThreadPoolExecutor(
+            2,
+            2,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(200),
+            r -> {
+                Thread thread = new Thread(r, "thumbnail");
+                thread.setDaemon(true);
+                return thread;
+            },
+            (r, e) -> log.debug("缩略图队列已满，改为首次访问时生成")
+    );
+
+    /**
+     * 缩略图路径 -> 正在进行的生成任务
+     */
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    public ThumbnailGenerator(ImageStore imageStore) {
+        this.imageStore = imageStore;
+    }
+
+    /**
+     * 异步生成一张图片所有宽度的缩略图
+     * @param name 原图路径
+     */
+    public void submit(String name) {
+        executor.execute(() -> {
+            for (int width : SystemConstants.IMAGE_VARIANT_WIDTHS) {
+                try {
+                    if (variant(name, width, false) == null) {
+                        return;
+                    }
+                } catch (Exception e) {
+                    log.warn("缩略图生成失败：{} w{}", name, width, e);
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * 获取缩略图文件，不存在就现场生成
+     * @param name 原图路径
+     * @param width 期望的宽度，取不小于它的最小一档，比所有档位都大时返回原图
+     * @return 文件路径，原图不存在、不是原图或者无法解码时返回 null
+     */
+    public Path variant(String name, int width) throws IOException {
+        return variant(name, width, true);
+    }
+
+    /**
+     * @param onRequest 是否在请求线程上调用：请求线程上同时现场生成的数量有上限，超出时先返回原图并把生成放到后台队列
+     */
+    private Path variant(String name, int width, boolean onRequest) throws IOException {
+        Path original = imageStore.resolve(name);
+        if (original == null || !Files.isRegularFile(original)) {
+            return null;
+        }
+        int size = snap(width);
+        if (size <= 0) {
+            return original;
+        }
+        if (!ImageStore.isOriginal(name)) {
+            return null;
+        }
+        String variantName = ImageStore.variantName(name, size);
+        Path target = imageStore.resolve(variantName);
+        if (Files.exists(target)) {
+            return target;
+        }
+        // 同一张缩略图只让一个线程生成，其余的等它的结果
+        CompletableFuture<Path> running = inFlight.get(variantName);
+        if (running != null) {
+            return join(running);
+        }
+        // 公开接口任何人都能触发解码，请求线程上的生成限制并发，拿不到许可就先给原图
+        if (onRequest && !lazyPermits.tryAcquire()) {
+            submit(name);
+            return original;
+        }
+        try {
+            CompletableFuture<Path> future = new CompletableFuture<>();
+            running = inFlight.putIfAbsent(variantName, future);
+            if (running != null) {
+                return join(running);
+            }
+            Path result;
+            try {
+                result = generate(original, target, size);
+                future.complete(result);
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(variantName);
+            }
+            return result;
+        } finally {
+            if (onRequest) {
+                lazyPermits.release();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 取不小于 width 的最小一档，没有(或者没有指定宽度)则返回 0 表示用原图
+     */
+    static int snap(int width) {
+        if (width <= 0) {
+            return 0;
+        }
+        for (int size : SystemConstants.IMAGE_VARIANT_WIDTHS) {
+            if (size >= width) {
+                return size;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 生成缩略图：先写临时文件再原子移动，读取方不会看到写了一半的文件
+     * @return 缩略图路径，原图无法解码(不是图片或者像素过多)时返回 null，不写任何文件
+     */
+    static Path generate(Path original, Path target, int width) throws IOException {
+        BufferedImage image = read(original, width);
+        if (image == null) {
+            return null;
+        }
+        Path tmp = Files.createTempFile(target.getParent(), "thumb-", ".part");
+        try {
+            if (image.getWidth() <= width) {
+                // 原图已经够小，直接复制一份，避免每次请求都重新尝试
+                Files.copy(original, tmp, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                String format = formatOf(target);
+                if (!ImageIO.write(scale(image, width, "png".equals(format) || "gif".equals(format)), format, tmp.toFile())) {
+                    Files.copy(original, tmp, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return target;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 解码图片，宽度远大于目标时用子采样只解码一部分像素
+     */
+    private static BufferedImage read(Path original, int width) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(original.toFile())) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int srcWidth = reader.getWidth(0);
+                int srcHeight = reader.getHeight(0);
+                if ((long) srcWidth * srcHeight > MAX_PIXELS) {
+                    return null;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, srcWidth / (width * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width, boolean alpha) {
+        int height = Math.max(1, (int) Math.round((double) image.getHeight() * width / image.getWidth()));
+        // jpg 不支持透明通道，用 RGB 并铺白底
+        BufferedImage scaled = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            if (!alpha) {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+            }
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static String formatOf(Path target) {
+        String fileName = target.getFileName().toString();
+        return fileName.substring(fileName.lastIndexOf('.') + 1);
+    }
+
+    private static Path join(CompletableFuture<Path> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待缩略图生成被中断", e);
+        } catch (ExecutionException e) {
+            throw new IOException("缩略图生成失败", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_KEY;
+
+/**
+ * @author codeep
+ * @date 2023/8/11 14:20
+ * @description: 签名令牌的吊销列表
+ * Redis 中用 zset 保存被吊销的令牌签名(score 为令牌过期时间，过期后自然清理)，本地用布隆过滤器做一层判断：
+ * 绝大多数令牌没有被吊销，布隆过滤器说不在就一定不在，不需要访问 Redis；只有命中时才去 Redis 确认一次
+ */
+@Slf4j
+@Component
+public class TokenRevocationList implements MessageListener {
+
+    /**
+     * 2^20 位 = 128 KB，十万个吊销令牌时误判率约 1%
+     */
+    private static final int BITS = 1 << 20;
+    private static final int HASHES = 7;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private volatile long[] bloom = new long[BITS >>> 6];
+
+    /**
+     * 正在重建的布隆过滤器，重建期间收到的吊销通知要同时写进去，否则换上新过滤器后会漏掉
+     */
+    private volatile long[] rebuilding;
+
+    public TokenRevocationList(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 吊销令牌
+     * @param signature 令牌签名
+     * @param expireAt 令牌过期时间戳(秒)，过期之后吊销记录就没用了
+     */
+    public void revoke(String signature, long expireAt) {
+        stringRedisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, signature, expireAt);
+        addLocal(signature);
+        // 通知其他节点加入本地布隆过滤器
+        stringRedisTemplate.convertAndSend(LOGIN_REVOKED_CHANNEL, signature);
+    }
+
+    /**
+     * 判断令牌是否被吊销
+     * @param signature 令牌签名
+     */
+    public boolean isRevoked(String signature) {
+        if (!mightContain(bloom, signature)) {
+            return false;
+        }
+        // 布隆过滤器可能误判，去 Redis 确认
+        return stringRedisTemplate.opsForZSet().score(LOGIN_REVOKED_KEY, signature) != null;
+    }
+
+    /**
+     * 定时清理过期的吊销记录并重建本地布隆过滤器(布隆过滤器不支持删除，只能整体重建)
+     */
+    @PostConstruct
+    @Scheduled(fixedDelay = 300_000L, initialDelay = 300_000L)
+    public synchronized void reload() {
+        long now = System.currentTimeMillis() / 1000;
+        long[] fresh = new long[BITS >>> 6];
+        rebuilding = fresh;
+        try {
+            stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, Double.NEGATIVE_INFINITY, now);
+            Set<String> signatures = stringRedisTemplate.opsForZSet().range(LOGIN_REVOKED_KEY, 0, -1);
+            if (signatures != null) {
+                signatures.forEach(signature -> add(fresh, signature));
+            }
+            bloom = fresh;
+            log.debug("重建令牌吊销列表，共 {} 条", signatures == null ? 0 : signatures.size());
+        } finally {
+            rebuilding = null;
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        addLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private void addLocal(String signature) {
+        add(bloom, signature);
+        long[] next = rebuilding;
+        if (next != null) {
+            add(next, signature);
+        }
+    }
+
+    private static void add(long[] bits, String value) {
+        long h1 = hash(value, 0x9E3779B97F4A7C15L);
+        long h2 = hash(value, 0xC2B2AE3D27D4EB4FL);
+        synchronized (bits) {
+            for (int i = 0; i < HASHES; i++) {
+                int index = (int) ((h1 + i * h2) & (BITS - 1));
+                bits[index >>> 6] |= 1L << index;
+            }
+        }
+    }
+
+    private static boolean mightContain(long[] bits, String value) {
+        long h1 = hash(value, 0x9E3779B97F4A7C15L);
+        long h2 = hash(value, 0xC2B2AE3D27D4EB4FL);
+        for (int i = 0; i < HASHES; i++) {
+            int index = (int) ((h1 + i * h2) & (BITS - 1));
+            if ((bits[index >>> 6] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 直接在字符串上算 64 位哈希，不产生 byte 数组
+     */
+    private static long hash(String value, long seed) {
+        long h = seed;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        // 末尾再混淆一下，让低位分布更均匀
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
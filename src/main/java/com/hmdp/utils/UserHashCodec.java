@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author codeep
+ * @date 2023/8/30 9:20
+ * @description: UserDTO 和登录会话 hash 之间的转换，手写字段，不走 BeanUtil 的反射
+ * 字段名和原来 BeanUtil.beanToMap 生成的一致(id、nickName、icon，空值不写)，升级前写入的会话照样能读
+ */
+public class UserHashCodec {
+
+    private static final String ID = "id";
+    private static final String NICK_NAME = "nickName";
+    private static final String ICON = "icon";
+
+    private UserHashCodec() {
+    }
+
+    /**
+     * 取出登录需要的字段
+     */
+    public static UserDTO toDTO(User user) {
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(user.getId());
+        userDTO.setNickName(user.getNickName());
+        userDTO.setIcon(user.getIcon());
+        return userDTO;
+    }
+
+    /**
+     * 编码为 hash，stringRedisTemplate 要求值都是字符串
+     */
+    public static Map<String, String> encode(UserDTO user) {
+        Map<String, String> hash = new HashMap<>(4);
+        if (user.getId() != null) {
+            hash.put(ID, user.getId().toString());
+        }
+        if (user.getNickName() != null) {
+            hash.put(NICK_NAME, user.getNickName());
+        }
+        if (user.getIcon() != null) {
+            hash.put(ICON, user.getIcon());
+        }
+        return hash;
+    }
+
+    /**
+     * 从 HGETALL 的结果解码
+     * @param hash 会话 hash
+     * @return 空 hash 返回 null
+     */
+    public static UserDTO decode(Map<?, ?> hash) {
+        if (hash == null || hash.isEmpty()) {
+            return null;
+        }
+        UserDTO user = new UserDTO();
+        Object id = hash.get(ID);
+        if (id != null) {
+            user.setId(Long.valueOf(id.toString()));
+        }
+        Object nickName = hash.get(NICK_NAME);
+        user.setNickName(nickName == null ? null : nickName.toString());
+        Object icon = hash.get(ICON);
+        user.setIcon(icon == null ? null : icon.toString());
+        return user;
+    }
+}
@@ -1,22 +1,24 @@
 package com.hmdp.utils;
 
 import com.hmdp.dto.UserDTO;
+
 /**
  * @author codeep
  * @date 2023/7/29
+ * @description: 当前用户，保存在 RequestContext 里，随上下文一起传递到其他线程
  */
 public class UserHolder {
-    private static final ThreadLocal<UserDTO> tl = new ThreadLocal<>();
 
     public static void saveUser(UserDTO user){
-        tl.set(user);
+        RequestContext.setUser(user);
     }
 
     public static UserDTO getUser(){
-        return tl.get();
+        RequestContext context = RequestContext.current();
+        return context == null ? null : context.getUser();
     }
 
     public static void removeUser(){
-        tl.remove();
+        RequestContext.setUser(null);
     }
 }
@@ -0,0 +1,258 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.mapper.CounterMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/22 10:10
+ * @description: 热点计数列的异步写回(write-behind)
+ * 每次计数变化只是对增量 hash 的一次 HINCRBY，不会在数据库的行锁上排队；定时任务把增量 hash 整体改名为 flushing 后一条 SQL 批量写回
+ * 写回是幂等的：flushing 里带一个批次 id，写库和记录批次 id 在同一个事务里，宕机后重放时发现批次已经写过就只删除 flushing，不会重复累加
+ * 读取时用 数据库的值 + 增量 + flushing 得到最新的计数
+ * 没有在本地内存里攒增量再批量 HINCRBY：进程崩溃会丢掉还没写进 Redis 的那部分，做不到不丢计数
+ */
+@Slf4j
+@Component
+public class WriteBehindCounter {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final CounterMapper counterMapper;
+
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * 等待下一轮写回时再删除一次的缓存
+     */
+    private final Queue<String> delayedEvictions = new ConcurrentLinkedQueue<>();
+
+    public WriteBehindCounter(StringRedisTemplate stringRedisTemplate, CounterMapper counterMapper,
+                              TransactionTemplate transactionTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.counterMapper = counterMapper;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * 累加计数
+     * @param type 计数列
+     * @param id 行 id
+     * @param delta 增量，可以为负
+     */
+    public void incr(CounterType type, Long id, long delta) {
+        stringRedisTemplate.opsForHash().increment(type.getDeltaKey(), id.toString(), delta);
+    }
+
+    /**
+     * 在调用方的管道里追加查询未写回增量的命令(2 条)，配合 sumPending 解析结果，避免多一次往返
+     * @param conn 管道连接
+     * @param type 计数列
+     * @param ids 行 id
+     */
+    public static void queuePending(StringRedisConnection conn, CounterType type, String... ids) {
+        conn.hMGet(type.getDeltaKey(), ids);
+        conn.hMGet(type.getFlushingKey(), ids);
+    }
+
+    /**
+     * 解析 queuePending 追加的 2 条命令的结果
+     * @param results 管道的结果
+     * @param index queuePending 的第一条命令在管道中的下标
+     * @param size 行数
+     * @return 每一行未写回的增量
+     */
+    public static long[] sumPending(List<Object> results, int index, int size) {
+        List<?> deltas = (List<?>) results.get(index);
+        List<?> flushing = (List<?>) results.get(index + 1);
+        long[] sums = new long[size];
+        for (int i = 0; i < size; i++) {
+            sums[i] = parse(deltas.get(i)) + parse(flushing.get(i));
+        }
+        return sums;
+    }
+
+    /**
+     * 一次管道查询多个计数列未写回的增量
+     * @param ids 行 id
+     * @param types 计数列
+     * @return 计数列 -> 每一行未写回的增量，顺序和 ids 一致
+     */
+    public Map<CounterType, long[]> pending(List<Long> ids, CounterType... types) {
+        Map<CounterType, long[]> map = new EnumMap<>(CounterType.class);
+        if (ids.isEmpty()) {
+            for (CounterType type : types) {
+                map.put(type, new long[0]);
+            }
+            return map;
+        }
+        String[] fields = ids.stream().map(String::valueOf).toArray(String[]::new);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (CounterType type : types) {
+                queuePending(conn, type, fields);
+            }
+            return null;
+        });
+        for (int i = 0; i < types.length; i++) {
+            map.put(types[i], sumPending(results, i * 2, ids.size()));
+        }
+        return map;
+    }
+
+    /**
+     * 把持久化的值和未写回的增量合并成最新值
+     */
+    public static int merge(Integer persisted, long pending) {
+        long value = (persisted == null ? 0 : persisted) + pending;
+        return (int) Math.max(value, 0);
+    }
+
+    /**
+     * 定时写回所有计数列，每一列单独加锁，多个节点可以分摊不同的列
+     */
+    @Scheduled(fixedDelay = 5000L)
+    public void flushAll() {
+        evictAgain();
+        for (CounterType type : CounterType.values()) {
+            try {
+                flush(type);
+            } catch (Exception e) {
+                // 失败的批次留在 flushing 中，下次重放
+                log.error("计数写回失败：{}.{}", type.getTable(), type.getColumn(), e);
+            }
+        }
+    }
+
+    /**
+     * 写回一列计数
+     * @param type 计数列
+     */
+    public void flush(CounterType type) {
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, "counter:flush:" + type.name());
+        if (!lock.tryLock(LOCK_FLUSH_TTL)) {
+            return;
+        }
+        try {
+            String flushingKey = type.getFlushingKey();
+            // 1. 上次没处理完的优先重放，否则把当前增量整体切走
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(flushingKey))) {
+                if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(type.getDeltaKey()))) {
+                    return;
+                }
+                stringRedisTemplate.rename(type.getDeltaKey(), flushingKey);
+            }
+            // 2. 给这一批分配批次 id，重放时沿用原来的
+            stringRedisTemplate.opsForHash().putIfAbsent(flushingKey, COUNTER_BATCH_FIELD, UUID.fastUUID().toString(true));
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(flushingKey);
+            String batchId = String.valueOf(entries.remove(COUNTER_BATCH_FIELD));
+            Map<Long, Long> deltas = new HashMap<>(entries.size());
+            entries.forEach((id, delta) -> {
+                long value = Long.parseLong(delta.toString());
+                if (value != 0) {
+                    deltas.put(Long.valueOf(id.toString()), value);
+                }
+            });
+            // 3. 记录批次和批量写回在同一个事务里，批次已存在说明写过了，直接跳过
+            Boolean applied = transactionTemplate.execute(status -> {
+                if (counterMapper.insertFlushLog(type.name() + ":" + batchId) == 0) {
+                    return false;
+                }
+                if (!deltas.isEmpty()) {
+                    counterMapper.incrBatch(type.getTable(), type.getColumn(), deltas);
+                }
+                return true;
+            });
+            // 4. 写库成功再删除，先删 flushing 再刷新缓存：缓存刷新前读到的是 旧缓存 + 0，不会重复累加
+            stringRedisTemplate.delete(flushingKey);
+            // 5. 缓存里的计数是旧的，刷新缓存
+            if (type.getCachePrefix() != null && !deltas.isEmpty()) {
+                refreshCache(type, deltas.keySet());
+            }
+            log.debug("{}.{} 写回数据库，共 {} 行{}", type.getTable(), type.getColumn(), deltas.size(),
+                    Boolean.TRUE.equals(applied) ? "" : "(重放，已跳过)");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写回后刷新缓存
+     * 逻辑过期的缓存(店铺)删掉会查不到，持有和缓存重建互斥的写锁，把计数原地改成数据库里的新值：正在进行的重建要么已经写完被覆盖，要么在之后读到新值
+     * 普通缓存(博客)直接删除；删除前查库的读者可能随后把旧值回填，下一轮写回时再删一次
+     */
+    private void refreshCache(CounterType type, Collection<Long> ids) {
+        if (!type.isLogicalExpire()) {
+            List<String> keys = ids.stream().map(id -> type.getCachePrefix() + id).collect(Collectors.toList());
+            stringRedisTemplate.delete(keys);
+            delayedEvictions.addAll(keys);
+            return;
+        }
+        String field = StrUtil.toCamelCase(type.getColumn());
+        for (Map<String, Object> row : counterMapper.selectCounts(type.getTable(), type.getColumn(), ids)) {
+            String key = type.getCachePrefix() + row.get("id");
+            ILock writeLock = new RedisReadWriteLock(stringRedisTemplate, key).writeLock();
+            if (!writeLock.tryLock(LOCK_WAIT_MILLIS, LOCK_SHOP_TTL)) {
+                // 拿不到锁说明正在更新或重建，它们会从数据库读到新值
+                continue;
+            }
+            try {
+                String json = stringRedisTemplate.opsForValue().get(key);
+                if (StrUtil.isBlank(json)) {
+                    continue;
+                }
+                JSONObject redisData = JSONUtil.parseObj(json);
+                JSONObject data = redisData.getJSONObject("data");
+                if (data == null) {
+                    continue;
+                }
+                data.set(field, row.get("value"));
+                stringRedisTemplate.opsForValue().set(key, redisData.toString());
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 再删除一次上一轮写回时删除过的缓存
+     */
+    private void evictAgain() {
+        List<String> keys = new ArrayList<>();
+        String key;
+        while ((key = delayedEvictions.poll()) != null) {
+            keys.add(key);
+        }
+        if (!keys.isEmpty()) {
+            stringRedisTemplate.delete(keys);
+        }
+    }
+
+    /**
+     * 清理过期的批次记录，重放只会发生在刚写回之后，保留一天足够
+     */
+    @Scheduled(cron = "0 0 * * * ?")
+    public void cleanFlushLog() {
+        counterMapper.deleteExpiredFlushLog();
+    }
+
+    private static long parse(Object delta) {
+        return delta == null ? 0 : Long.parseLong(delta.toString());
+    }
+}
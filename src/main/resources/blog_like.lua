@@ -0,0 +1,20 @@
+-- 点赞 / 取消点赞
+-- KEYS[1] 博客的点赞 zset， KEYS[2] 点赞数增量 hash， KEYS[3] 热门排行 zset
+-- ARGV[1] 用户 id， ARGV[2] 当前时间戳(毫秒)， ARGV[3] 博客 id， ARGV[4] 每个点赞折算的热度
+-- 返回 1 表示点赞成功，0 表示取消点赞
+local delta = 1
+if (redis.call('ZSCORE', KEYS[1], ARGV[1])) then
+    redis.call('ZREM', KEYS[1], ARGV[1])
+    delta = -1
+else
+    redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1])
+end
+redis.call('HINCRBY', KEYS[2], ARGV[3], delta)
+-- 已经被挤出排行的笔记不再加回去，否则只有点赞项没有时间项，分数没有意义
+if (redis.call('ZSCORE', KEYS[3], ARGV[3])) then
+    redis.call('ZINCRBY', KEYS[3], delta * tonumber(ARGV[4]), ARGV[3])
+end
+if (delta > 0) then
+    return 1
+end
+return 0
@@ -0,0 +1,17 @@
+-- 关注 / 取关后同步缓存，只更新已经加载过的缓存，没加载过的下次会从数据库完整加载
+-- KEYS[1] 我的关注集合， KEYS[2] 我的计数 hash， KEYS[3] 对方的计数 hash
+-- ARGV[1] 对方的用户 id， ARGV[2] 1 表示关注，-1 表示取关
+if (redis.call('EXISTS', KEYS[1]) == 1) then
+    if (ARGV[2] == '1') then
+        redis.call('SADD', KEYS[1], ARGV[1])
+    else
+        redis.call('SREM', KEYS[1], ARGV[1])
+    end
+end
+if (redis.call('HEXISTS', KEYS[2], 'following') == 1) then
+    redis.call('HINCRBY', KEYS[2], 'following', ARGV[2])
+end
+if (redis.call('HEXISTS', KEYS[3], 'followers') == 1) then
+    redis.call('HINCRBY', KEYS[3], 'followers', ARGV[2])
+end
+return 1
@@ -0,0 +1,15 @@
+-- 初始化关注计数
+-- KEYS[1] 计数 hash
+-- ARGV[1] 字段， ARGV[2] 数据库里查到的计数， ARGV[3] 过期时间(秒)
+-- 字段已经存在说明别人初始化过，之后的关注都已经在累加，直接返回现有的值
+local count = redis.call('HGET', KEYS[1], ARGV[1])
+if (count) then
+    return tonumber(count)
+end
+redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+-- 查库和写入之间提交的关注找不到字段，没有累加上，写入的值会少算；过期时间设短一些，过期后重新查库修正
+local ttl = redis.call('TTL', KEYS[1])
+if (ttl < 0 or ttl > tonumber(ARGV[3])) then
+    redis.call('EXPIRE', KEYS[1], ARGV[3])
+end
+return tonumber(ARGV[2])
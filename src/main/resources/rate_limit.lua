@@ -0,0 +1,29 @@
+-- 令牌桶限流
+-- KEYS[1] 限流的键， ARGV[1] 桶容量， ARGV[2] 每毫秒补充的令牌数， ARGV[3] 当前时间戳(毫秒)， ARGV[4] 本次需要的令牌数
+-- 返回 0 表示放行，否则返回还需要等待的毫秒数
+local capacity = tonumber(ARGV[1])
+local rate = tonumber(ARGV[2])
+local now = tonumber(ARGV[3])
+local requested = tonumber(ARGV[4])
+
+local bucket = redis.call('HMGET', KEYS[1], 'tokens', 'ts')
+local tokens = tonumber(bucket[1])
+local ts = tonumber(bucket[2])
+-- 第一次访问桶是满的
+if (tokens == nil) then
+    tokens = capacity
+    ts = now
+end
+-- 按流逝的时间补充令牌，不超过容量(各节点时钟有偏差时不倒扣)
+tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate)
+
+local wait = 0
+if (tokens >= requested) then
+    tokens = tokens - requested
+else
+    wait = math.ceil((requested - tokens) / rate)
+end
+redis.call('HMSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(now))
+-- 桶补满所需的时间之后就没必要保留了
+redis.call('PEXPIRE', KEYS[1], math.ceil(capacity / rate) + 1000)
+return wait
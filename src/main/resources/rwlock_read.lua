@@ -0,0 +1,20 @@
+-- KEYS[1] 读写锁的键， ARGV[1] 传线程标识， ARGV[2] 锁持有的超时时间(毫秒)
+-- 锁结构为 hash：mode 字段记录当前模式(read / write)，其余字段为持有者标识 -> 重入次数
+local mode = redis.call('HGET', KEYS[1], 'mode')
+-- 没人持有锁，直接以读模式获取
+if (mode == false) then
+    redis.call('HSET', KEYS[1], 'mode', 'read')
+    redis.call('HINCRBY', KEYS[1], ARGV[1], 1)
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+    return 1
+end
+-- 读模式下读者之间共享，只延长不缩短整把锁的过期时间
+if (mode == 'read') then
+    redis.call('HINCRBY', KEYS[1], ARGV[1], 1)
+    if (redis.call('PTTL', KEYS[1]) < tonumber(ARGV[2])) then
+        redis.call('PEXPIRE', KEYS[1], ARGV[2])
+    end
+    return 1
+end
+-- 写模式下读者必须等待
+return 0
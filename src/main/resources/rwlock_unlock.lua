@@ -0,0 +1,14 @@
+-- KEYS[1] 读写锁的键， ARGV[1] 传线程标识
+-- 不是自己持有的锁不能释放，防止误删
+if (redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0) then
+    return 0
+end
+-- 重入次数减一，减到 0 则移除持有者
+if (redis.call('HINCRBY', KEYS[1], ARGV[1], -1) <= 0) then
+    redis.call('HDEL', KEYS[1], ARGV[1])
+end
+-- 只剩 mode 字段说明已经没有持有者了，删除整把锁
+if (redis.call('HLEN', KEYS[1]) <= 1) then
+    redis.call('DEL', KEYS[1])
+end
+return 1
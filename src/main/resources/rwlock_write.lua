@@ -0,0 +1,16 @@
+-- KEYS[1] 读写锁的键， ARGV[1] 传线程标识， ARGV[2] 锁持有的超时时间(毫秒)
+-- 没人持有锁，直接以写模式获取
+if (redis.call('EXISTS', KEYS[1]) == 0) then
+    redis.call('HSET', KEYS[1], 'mode', 'write')
+    redis.call('HINCRBY', KEYS[1], ARGV[1], 1)
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+    return 1
+end
+-- 写锁只允许持有者自己重入
+if (redis.call('HGET', KEYS[1], 'mode') == 'write' and redis.call('HEXISTS', KEYS[1], ARGV[1]) == 1) then
+    redis.call('HINCRBY', KEYS[1], ARGV[1], 1)
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+    return 1
+end
+-- 有读者或者别人持有写锁
+return 0
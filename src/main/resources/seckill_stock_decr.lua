@@ -0,0 +1,7 @@
+-- 秒杀券展示库存 -1
+-- KEYS[1] 库存 key
+-- 只在 key 已存在时扣减，避免还没初始化的库存被 DECR 成 -1；不存在时由读取方从数据库补上
+if (redis.call('EXISTS', KEYS[1]) == 1) then
+    return redis.call('DECR', KEYS[1])
+end
+return nil
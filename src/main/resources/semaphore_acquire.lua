@@ -0,0 +1,16 @@
+-- KEYS[1] 信号量的键， ARGV[1] 传持有者标识， ARGV[2] 许可总数， ARGV[3] 当前时间戳(毫秒)， ARGV[4] 许可持有的超时时间(毫秒)
+-- 信号量结构为 zset：member 为持有者标识，score 为该许可的过期时间戳，这样持有者宕机后许可也能自动回收
+redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', ARGV[3])
+-- 已经持有则直接续期
+if (redis.call('ZSCORE', KEYS[1], ARGV[1])) then
+    redis.call('ZADD', KEYS[1], tonumber(ARGV[3]) + tonumber(ARGV[4]), ARGV[1])
+    return 1
+end
+-- 许可已经被发完了
+if (redis.call('ZCARD', KEYS[1]) >= tonumber(ARGV[2])) then
+    return 0
+end
+redis.call('ZADD', KEYS[1], tonumber(ARGV[3]) + tonumber(ARGV[4]), ARGV[1])
+-- 给整个 key 兜底一个过期时间，避免长期没人使用时残留
+redis.call('PEXPIRE', KEYS[1], ARGV[4])
+return 1
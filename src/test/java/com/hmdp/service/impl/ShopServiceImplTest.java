@@ -1,10 +1,17 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import javax.annotation.Resource;
 
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -24,4 +31,73 @@ class ShopServiceImplTest {
         System.out.println(success);
     }
 
-}
\ No newline at end of file
+    /**
+     * 附近商铺压测：GEO 集合 vs 直接在 SQL 里算距离排序
+     * 坐标在杭州市区附近随机取点，先校验两种方式排出的顺序一致，再各跑相同次数
+     * 需要 Redis 和 MySQL，默认不跑，用 mvn test -Pbenchmark 运行
+     */
+    @Tag("benchmark")
+    @Test
+    void testNearbyShopLoad() {
+        shopService.loadShopIndex();
+        for (int i = 0; i < 20; i++) {
+            double x = 120.15 + ThreadLocalRandom.current().nextDouble(-0.05, 0.05);
+            double y = 30.28 + ThreadLocalRandom.current().nextDouble(-0.05, 0.05);
+            List<Long> geo = ids(geoPage(x, y));
+            List<Long> sql = ids(sqlPage(x, y));
+            // GEO 只查半径范围内的，SQL 不限半径，GEO 的结果必须是 SQL 排序的前缀
+            assertEquals(sql.subList(0, geo.size()), geo);
+        }
+
+        int rounds = 2000;
+        // 预热
+        queryByGeo(100);
+        queryBySql(100);
+
+        long begin = System.nanoTime();
+        queryByGeo(rounds);
+        long geoCost = System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        queryBySql(rounds);
+        long sqlCost = System.nanoTime() - begin;
+
+        System.out.println("GEO: " + geoCost / rounds / 1000 + " us/op");
+        System.out.println("SQL: " + sqlCost / rounds / 1000 + " us/op");
+    }
+
+    private void queryByGeo(int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            double x = 120.15 + ThreadLocalRandom.current().nextDouble(-0.05, 0.05);
+            double y = 30.28 + ThreadLocalRandom.current().nextDouble(-0.05, 0.05);
+            assertNotNull(geoPage(x, y));
+        }
+    }
+
+    private void queryBySql(int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            double x = 120.15 + ThreadLocalRandom.current().nextDouble(-0.05, 0.05);
+            double y = 30.28 + ThreadLocalRandom.current().nextDouble(-0.05, 0.05);
+            assertNotNull(sqlPage(x, y));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Shop> geoPage(double x, double y) {
+        Result result = shopService.queryShopByType(1, 1, x, y, null);
+        assertTrue(result.getSuccess());
+        return (List<Shop>) result.getData();
+    }
+
+    private List<Shop> sqlPage(double x, double y) {
+        return shopService.query()
+                .eq("type_id", 1)
+                .last("ORDER BY ST_Distance_Sphere(POINT(x, y), POINT(" + x + ", " + y + ")) LIMIT 5")
+                .list();
+    }
+
+    private static List<Long> ids(List<Shop> shops) {
+        return shops.stream().map(Shop::getId).collect(Collectors.toList());
+    }
+
+}
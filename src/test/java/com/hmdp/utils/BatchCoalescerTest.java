@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/30 10:20
+ * @description:
+ */
+class BatchCoalescerTest {
+
+    @Test
+    void concurrentSubmitsAreBatchedAndDeduplicated() throws Exception {
+        AtomicInteger batches = new AtomicInteger();
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        BatchCoalescer<String, String> coalescer = new BatchCoalescer<>(50, keys -> {
+            batches.incrementAndGet();
+            sizes.add(keys.size());
+            assertEquals(new HashSet<>(keys).size(), keys.size());
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Map<String, String> result = new HashMap<>();
+            keys.forEach(k -> result.put(k, "v" + k));
+            return result;
+        });
+        int threads = 32;
+        int perThread = 20;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        // 一半的 key 在线程之间重复
+                        String key = String.valueOf(i % 2 == 0 ? i : ThreadLocalRandom.current().nextInt(1000));
+                        if (!("v" + key).equals(coalescer.submit(key))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertTrue(batches.get() < threads * perThread, "并发提交应当被合并");
+        assertTrue(sizes.stream().allMatch(size -> size <= 50));
+    }
+
+    @Test
+    void failureIsRethrownToEveryCaller() {
+        BatchCoalescer<String, String> coalescer = new BatchCoalescer<>(10, keys -> {
+            throw new IllegalArgumentException("boom");
+        });
+        assertThrows(IllegalArgumentException.class, () -> coalescer.submit("a"));
+
+        BatchCoalescer<String, String> missing = new BatchCoalescer<>(10, keys -> Collections.emptyMap());
+        assertThrows(IllegalStateException.class, () -> missing.submit("a"));
+    }
+}
@@ -0,0 +1,43 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/26 11:00
+ * @description: Range 头的解析、响应类型
+ */
+class FileSenderTest {
+
+    @Test
+    void testParseRange() {
+        assertArrayEquals(new long[]{0, 100}, FileSender.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[]{100, 1000}, FileSender.parseRange("bytes=100-", 1000));
+        assertArrayEquals(new long[]{900, 1000}, FileSender.parseRange("bytes=-100", 1000));
+        // 超出文件长度的部分截掉
+        assertArrayEquals(new long[]{500, 1000}, FileSender.parseRange("bytes=500-5000", 1000));
+        assertArrayEquals(new long[]{0, 1000}, FileSender.parseRange("bytes=-5000", 1000));
+        // 不可满足
+        assertEquals(0, FileSender.parseRange("bytes=1000-", 1000).length);
+        assertEquals(0, FileSender.parseRange("bytes=-0", 1000).length);
+        // 忽略，返回整个文件
+        assertNull(FileSender.parseRange(null, 1000));
+        assertNull(FileSender.parseRange("bytes=0-1,5-9", 1000));
+        assertNull(FileSender.parseRange("bytes=9-5", 1000));
+        assertNull(FileSender.parseRange("items=0-1", 1000));
+        assertNull(FileSender.parseRange("bytes=a-b", 1000));
+    }
+
+    @Test
+    void testContentType() {
+        assertEquals(MediaType.IMAGE_JPEG, FileSender.contentTypeOf("a.jpg"));
+        assertEquals(MediaType.IMAGE_PNG, FileSender.contentTypeOf("a_w200.png"));
+        // 能执行脚本的类型和未知类型都按二进制流返回
+        assertEquals(MediaType.APPLICATION_OCTET_STREAM, FileSender.contentTypeOf("a.svg"));
+        assertEquals(MediaType.APPLICATION_OCTET_STREAM, FileSender.contentTypeOf("a.html"));
+        assertEquals(MediaType.APPLICATION_OCTET_STREAM, FileSender.contentTypeOf("a"));
+    }
+}
@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import cn.hutool.crypto.SecureUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/24 11:20
+ * @description: 图片存储中不依赖 Redis 的部分：流式摘要和路径生成
+ */
+class ImageStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testCopyAndDigest() throws Exception {
+        // 超过一次 transferFrom 的块大小，验证循环写入
+        byte[] data = new byte[(1 << 20) * 3 + 123];
+        new Random(7).nextBytes(data);
+        Path target = dir.resolve("a.part");
+        Files.createFile(target);
+
+        String hash = ImageStore.copyAndDigest(new ByteArrayInputStream(data), target);
+
+        assertEquals(SecureUtil.sha256().digestHex(data), hash);
+        assertArrayEquals(data, Files.readAllBytes(target));
+    }
+
+    @Test
+    void testObjectName() {
+        String hash = SecureUtil.sha256().digestHex("img");
+        String prefix = "/blogs/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash;
+        assertEquals(prefix + ".jpg", ImageStore.objectName(hash, "photo.JPG"));
+        assertEquals(prefix, ImageStore.objectName(hash, "no-suffix"));
+        assertEquals(prefix, ImageStore.objectName(hash, "evil.j/../pg"));
+        assertEquals(prefix, ImageStore.objectName(hash, null));
+        // 不是位图的后缀不保留，避免在本站域名下返回 html、svg
+        assertEquals(prefix, ImageStore.objectName(hash, "x.html"));
+        assertEquals(prefix, ImageStore.objectName(hash, "x.svg"));
+    }
+}
@@ -0,0 +1,82 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/29 10:30
+ * @description:
+ */
+class RequestContextTest {
+
+    @AfterEach
+    void tearDown() {
+        RequestContext.clear();
+    }
+
+    private static UserDTO user(long id) {
+        UserDTO user = new UserDTO();
+        user.setId(id);
+        return user;
+    }
+
+    @Test
+    void propagatesToExecutorAndRestoresWorker() throws Exception {
+        ThreadPoolExecutor executor = new ContextThreadPoolExecutor(1, 1, 0L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(10), Executors.defaultThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        try {
+            RequestContext.restore(RequestContext.create("abc", 1L));
+            UserHolder.saveUser(user(7L));
+            Future<String> seen = executor.submit(() -> UserHolder.getUser().getId() + ":" + MDC.get(RequestContext.TRACE_ID));
+            assertEquals("7:abc", seen.get());
+
+            // 工作线程执行完恢复为空，下一个没有上下文的任务看不到上一个用户
+            RequestContext.clear();
+            Future<Boolean> leaked = executor.submit(() -> UserHolder.getUser() != null || MDC.get(RequestContext.TRACE_ID) != null);
+            assertFalse(leaked.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void callerRunsRestoresCallerContext() {
+        RequestContext caller = RequestContext.create("caller", 1L).withUser(user(1L));
+        RequestContext captured = RequestContext.create("captured", 2L).withUser(user(2L));
+        RequestContext.restore(caller);
+        Long[] seen = new Long[1];
+        RequestContext.wrap(captured, () -> seen[0] = UserHolder.getUser().getId()).run();
+        assertEquals(2L, seen[0]);
+        assertSame(caller, RequestContext.current());
+        assertEquals("caller", MDC.get(RequestContext.TRACE_ID));
+    }
+
+    @Test
+    void wrapWithoutContextClearsDuringTask() {
+        Runnable task = RequestContext.wrap(() -> assertNull(UserHolder.getUser()));
+        UserHolder.saveUser(user(3L));
+        task.run();
+        assertEquals(3L, UserHolder.getUser().getId());
+    }
+
+    @Test
+    void removeUserKeepsTraceIdAndDropsEmptyContext() {
+        RequestContext.restore(RequestContext.create("t", 1L));
+        UserHolder.saveUser(user(1L));
+        UserHolder.removeUser();
+        assertNull(UserHolder.getUser());
+        assertEquals("t", RequestContext.current().getTraceId());
+
+        RequestContext.clear();
+        UserHolder.saveUser(user(1L));
+        UserHolder.removeUser();
+        assertNull(RequestContext.current());
+    }
+}
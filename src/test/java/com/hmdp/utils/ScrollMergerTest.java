@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ScrollResult;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/16 11:02
+ * @description:
+ */
+class ScrollMergerTest {
+
+    /**
+     * 按 ZREVRANGEBYSCORE 的顺序构造一路结果：score 从大到小，相同 score 按 member 逆序
+     */
+    private static List<ZSetOperations.TypedTuple<String>> source(long max, int count, Object... pairs) {
+        List<ZSetOperations.TypedTuple<String>> list = new ArrayList<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            list.add(new DefaultTypedTuple<>(pairs[i].toString(), ((Number) pairs[i + 1]).doubleValue()));
+        }
+        list.sort((a, b) -> {
+            int c = Double.compare(b.getScore(), a.getScore());
+            return c != 0 ? c : b.getValue().compareTo(a.getValue());
+        });
+        list.removeIf(t -> t.getScore() > max);
+        return list.subList(0, Math.min(count, list.size()));
+    }
+
+    @Test
+    void testMergeAndScroll() {
+        Object[] inbox = {1, 100, 2, 90, 3, 90, 4, 70};
+        Object[] outbox = {5, 95, 6, 90, 7, 60};
+        List<Long> all = new ArrayList<>();
+        long max = 1000;
+        int offset = 0;
+        int size = 2;
+        for (int page = 0; page < 10; page++) {
+            ScrollResult r = ScrollMerger.merge(
+                    Arrays.asList(source(max, offset + size, inbox), source(max, offset + size, outbox)),
+                    max, offset, size);
+            @SuppressWarnings("unchecked")
+            List<Long> ids = (List<Long>) r.getList();
+            if (ids.isEmpty()) {
+                break;
+            }
+            all.addAll(ids);
+            max = r.getMinTime();
+            offset = r.getOffset();
+        }
+        // 相同时间戳 90 的三条跨页也不会重复或遗漏
+        assertEquals(Arrays.asList(1L, 5L, 6L, 3L, 2L, 4L, 7L), all);
+    }
+
+    @Test
+    void testDuplicateAcrossSources() {
+        ScrollResult r = ScrollMerger.merge(
+                Arrays.asList(source(1000, 10, 1, 100, 2, 90), source(1000, 10, 2, 90, 3, 80)),
+                1000, 0, 10);
+        assertEquals(Arrays.asList(1L, 2L, 3L), r.getList());
+        assertEquals(80L, r.getMinTime());
+        assertEquals(1, r.getOffset());
+    }
+
+}
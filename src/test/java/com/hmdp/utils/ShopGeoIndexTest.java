@@ -0,0 +1,128 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/17 15:20
+ * @description:
+ */
+class ShopGeoIndexTest {
+
+    private static final long TYPE_ID = 1L;
+
+    /**
+     * 和暴力计算所有店铺距离的结果对比
+     */
+    @Test
+    void testWithinAndNearestMatchBruteForce() {
+        Random random = new Random(42);
+        int n = 20000;
+        long[] ids = new long[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        ShopGeoIndex.Builder builder = new ShopGeoIndex.Builder();
+        for (int i = 0; i < n; i++) {
+            ids[i] = i + 1;
+            xs[i] = 120.0 + random.nextDouble() * 0.4;
+            ys[i] = 30.1 + random.nextDouble() * 0.3;
+            builder.add(TYPE_ID, ids[i], xs[i], ys[i]);
+        }
+        ShopGeoIndex index = new ShopGeoIndex();
+        index.reset(builder);
+        assertTrue(index.isReady());
+
+        for (int round = 0; round < 50; round++) {
+            double x = 120.0 + random.nextDouble() * 0.4;
+            double y = 30.1 + random.nextDouble() * 0.3;
+            List<Long> expected = bruteForce(ids, xs, ys, x, y, 3000);
+            // 半径查询，逐页对比
+            for (int from = 0; from < 30; from += 10) {
+                List<Long> page = ids(index.within(TYPE_ID, x, y, 3000, from, 10));
+                assertEquals(expected.subList(Math.min(from, expected.size()), Math.min(from + 10, expected.size())), page);
+            }
+            // 最近邻查询，半径不够时自动扩大
+            List<Long> nearest = bruteForce(ids, xs, ys, x, y, Double.MAX_VALUE).subList(0, 25);
+            assertEquals(nearest.subList(20, 25), ids(index.nearest(TYPE_ID, x, y, 20, 5)));
+        }
+    }
+
+    @Test
+    void testIncrementalUpdate() {
+        ShopGeoIndex index = new ShopGeoIndex();
+        index.reset(new ShopGeoIndex.Builder()
+                .add(TYPE_ID, 1, 120.10, 30.20)
+                .add(TYPE_ID, 2, 120.11, 30.20)
+                .add(2L, 3, 120.10, 30.20));
+        // 新增一家更近的店铺
+        index.move(4L, null, TYPE_ID, 120.1001, 30.2001);
+        assertEquals(Arrays.asList(4L, 1L, 2L), ids(index.within(TYPE_ID, 120.1001, 30.2001, 5000, 0, 10)));
+        // 1 号店铺挪远
+        index.move(1L, TYPE_ID, TYPE_ID, 121.0, 31.0);
+        assertEquals(Arrays.asList(4L, 2L), ids(index.within(TYPE_ID, 120.1001, 30.2001, 5000, 0, 10)));
+        // 3 号店铺换类型，通过广播消息应用
+        String message = ShopGeoIndex.message(3L, 2L, TYPE_ID, 120.1002, 30.2002);
+        index.onMessage(new DefaultMessage(
+                "shop:geo:changed".getBytes(StandardCharsets.UTF_8), message.getBytes(StandardCharsets.UTF_8)), null);
+        assertEquals(Arrays.asList(4L, 3L, 2L), ids(index.within(TYPE_ID, 120.1001, 30.2001, 5000, 0, 10)));
+        assertTrue(index.within(2L, 120.1, 30.2, 5000, 0, 10).isEmpty());
+        // 移除坐标
+        index.move(4L, TYPE_ID, TYPE_ID, null, null);
+        assertEquals(Arrays.asList(3L, 2L), ids(index.within(TYPE_ID, 120.1001, 30.2001, 5000, 0, 10)));
+    }
+
+    @Test
+    void testCompaction() {
+        ShopGeoIndex index = new ShopGeoIndex();
+        index.reset(new ShopGeoIndex.Builder());
+        // 超过合并阈值，结果不受影响
+        for (long id = 1; id <= 3000; id++) {
+            index.move(id, null, TYPE_ID, 120.0 + id * 1e-5, 30.0);
+        }
+        for (long id = 1; id <= 3000; id += 2) {
+            index.move(id, TYPE_ID, TYPE_ID, null, null);
+        }
+        List<ShopGeoIndex.Neighbor> page = index.within(TYPE_ID, 120.0, 30.0, 100000, 0, 3);
+        assertEquals(Arrays.asList(2L, 4L, 6L), ids(page));
+        // 剩下 1500 家，最后一页只有 5 家
+        assertEquals(5, index.within(TYPE_ID, 120.0, 30.0, 100000, 1495, 10).size());
+    }
+
+    @Test
+    void testPageBounds() {
+        ShopGeoIndex index = new ShopGeoIndex();
+        index.reset(new ShopGeoIndex.Builder().add(TYPE_ID, 1, 120.10, 30.20));
+        assertTrue(index.within(TYPE_ID, 120.1, 30.2, 5000, -5, 5).isEmpty());
+        assertTrue(index.within(TYPE_ID, 120.1, 30.2, 5000, 0, 0).isEmpty());
+        // 页码过大、溢出都不分配数组
+        assertTrue(index.within(TYPE_ID, 120.1, 30.2, 5000, Integer.MAX_VALUE - 2, 5).isEmpty());
+        assertTrue(index.within(TYPE_ID, 120.1, 30.2, 5000, 100_000_000, 5).isEmpty());
+        assertTrue(index.nearest(TYPE_ID, 120.1, 30.2, Integer.MAX_VALUE - 2, 5).isEmpty());
+        // 最近邻的搜索半径有上限，太远的店铺找不到
+        assertEquals(Collections.singletonList(1L), ids(index.nearest(TYPE_ID, 120.5, 30.5, 0, 5)));
+        assertTrue(index.nearest(TYPE_ID, 125.0, 35.0, 0, 5).isEmpty());
+    }
+
+    private static List<Long> bruteForce(long[] ids, double[] xs, double[] ys, double x, double y, double radius) {
+        List<double[]> hits = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            double d = ShopGeoIndex.distance(x, y, xs[i], ys[i]);
+            if (d <= radius) {
+                hits.add(new double[]{ids[i], d});
+            }
+        }
+        hits.sort(Comparator.comparingDouble(h -> h[1]));
+        return hits.stream().map(h -> (long) h[0]).collect(Collectors.toList());
+    }
+
+    private static List<Long> ids(List<ShopGeoIndex.Neighbor> neighbors) {
+        return neighbors.stream().map(ShopGeoIndex.Neighbor::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/18 14:40
+ * @description:
+ */
+class ShopNameIndexTest {
+
+    private static final String[] WORDS = {"茶餐厅", "火锅", "烤肉", "KTV", "咖啡", "小吃", "面馆", "Coffee", "海底捞", "西湖", "湖滨", "银泰"};
+
+    private static class Row {
+        long id;
+        String name;
+        int score;
+        int sold;
+    }
+
+    /**
+     * 和 contains + 排序的暴力结果对比
+     */
+    @Test
+    void testSearchMatchesBruteForce() {
+        Random random = new Random(7);
+        List<Row> rows = new ArrayList<>();
+        ShopNameIndex.Builder builder = new ShopNameIndex.Builder();
+        for (int i = 1; i <= 50000; i++) {
+            Row row = new Row();
+            row.id = i;
+            row.name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + i % 97;
+            row.score = random.nextInt(50);
+            row.sold = random.nextInt(10000);
+            rows.add(row);
+            builder.add(row.id, row.name, row.score, row.sold);
+        }
+        ShopNameIndex index = new ShopNameIndex();
+        index.reset(builder);
+
+        for (String keyword : new String[]{"火锅", "湖", "coffee", "KTV 咖啡", "西湖银泰", "底捞烤", "不存在"}) {
+            List<Long> expected = bruteForce(rows, keyword);
+            for (int from = 0; from < 30; from += 10) {
+                List<Long> page = index.search(keyword, from, 10);
+                assertEquals(expected.subList(Math.min(from, expected.size()), Math.min(from + 10, expected.size())), page, keyword);
+            }
+        }
+    }
+
+    @Test
+    void testIncrementalUpdate() {
+        ShopNameIndex index = new ShopNameIndex();
+        index.reset(new ShopNameIndex.Builder()
+                .add(1, "103茶餐厅", 37, 100)
+                .add(2, "蔡林记", 47, 200)
+                .add(3, "新白鹿餐厅", 44, 300));
+        assertEquals(Arrays.asList(3L, 1L), index.search("餐厅", 0, 10));
+        // 1 号店铺评分上涨，排到前面
+        index.upsert(1, "103茶餐厅", 49, 100);
+        assertEquals(Arrays.asList(1L, 3L), index.search("餐厅", 0, 10));
+        // 改名之后旧名称搜不到
+        index.upsert(3, "新白鹿", 44, 300);
+        assertEquals(Collections.singletonList(1L), index.search("餐厅", 0, 10));
+        // 新增店铺
+        index.upsert(4, "蔡记餐厅", 10, 1);
+        assertEquals(Arrays.asList(1L, 4L), index.search("餐厅", 0, 10));
+        assertEquals(Collections.singletonList(4L), index.search("餐厅", 1, 10));
+        index.remove(1);
+        assertEquals(Collections.singletonList(4L), index.search("餐厅", 0, 10));
+        // 超过合并阈值之后结果不变
+        for (long id = 100; id < 2200; id++) {
+            index.upsert(id, "店铺" + id, 0, 0);
+        }
+        assertEquals(Collections.singletonList(4L), index.search("餐厅", 0, 10));
+        assertEquals(Collections.singletonList(2199L), index.search("铺2199", 0, 10));
+    }
+
+    @Test
+    void testPageBounds() {
+        ShopNameIndex index = new ShopNameIndex();
+        index.reset(new ShopNameIndex.Builder().add(1, "103茶餐厅", 37, 100));
+        assertTrue(index.search("餐厅", -10, 10).isEmpty());
+        assertTrue(index.search("餐厅", 0, 0).isEmpty());
+        // 页码过大、溢出都直接返回空
+        assertTrue(index.search("餐厅", Integer.MAX_VALUE - 5, 10).isEmpty());
+        assertTrue(index.search("餐厅", 100_000_000, 10).isEmpty());
+    }
+
+    private static List<Long> bruteForce(List<Row> rows, String keyword) {
+        String q = ShopNameIndex.normalize(keyword);
+        return rows.stream()
+                .filter(row -> ShopNameIndex.normalize(row.name).contains(q))
+                .sorted(Comparator.<Row>comparingInt(row -> -row.score)
+                        .thenComparingInt(row -> -row.sold)
+                        .thenComparingLong(row -> row.id))
+                .map(row -> row.id)
+                .collect(Collectors.toList());
+    }
+}
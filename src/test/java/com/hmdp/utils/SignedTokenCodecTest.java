@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/11 16:02
+ * @description:
+ */
+class SignedTokenCodecTest {
+
+    private final SignedTokenCodec codec = new SignedTokenCodec("test-secret");
+
+    private UserDTO user() {
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("NJFUer_可达鸭");
+        user.setIcon("/imgs/icons/kkjtbcr.jpg");
+        return user;
+    }
+
+    @Test
+    void testEncodeAndDecode() {
+        String token = codec.encode(user(), 2000L);
+        assertTrue(SignedTokenCodec.isSigned(token));
+        UserDTO decoded = codec.decode(token, 1000L);
+        assertEquals(user(), decoded);
+    }
+
+    @Test
+    void testExpired() {
+        String token = codec.encode(user(), 2000L);
+        assertNull(codec.decode(token, 2000L));
+    }
+
+    @Test
+    void testTampered() {
+        String token = codec.encode(user(), 2000L);
+        // 改 payload
+        String forged = "A" + token.substring(1);
+        assertNull(codec.decode(forged, 1000L));
+        // 改签名
+        char last = token.charAt(token.length() - 1);
+        forged = token.substring(0, token.length() - 1) + (last == 'A' ? 'B' : 'A');
+        assertNull(codec.decode(forged, 1000L));
+        // 换密钥
+        assertNull(new SignedTokenCodec("other-secret").decode(token, 1000L));
+    }
+
+    /**
+     * 解码耗时，默认不跑，用 mvn test -Pbenchmark 运行
+     */
+    @Tag("benchmark")
+    @Test
+    void testDecodeSpeed() {
+        String token = codec.encode(user(), Long.MAX_VALUE / 2);
+        // 预热
+        for (int i = 0; i < 100_000; i++) {
+            codec.decode(token, 1000L);
+        }
+        int n = 1_000_000;
+        UserDTO decoded = null;
+        long begin = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            decoded = codec.decode(token, 1000L);
+        }
+        long end = System.nanoTime();
+        assertEquals(user(), decoded);
+        System.out.println("signed token decode : " + (end - begin) / n + " ns/op");
+    }
+
+}
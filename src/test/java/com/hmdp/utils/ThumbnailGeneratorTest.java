@@ -0,0 +1,75 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/25 11:00
+ * @description: 缩略图的档位选择、命名和生成
+ */
+class ThumbnailGeneratorTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testSnap() {
+        assertEquals(0, ThumbnailGenerator.snap(0));
+        assertEquals(200, ThumbnailGenerator.snap(1));
+        assertEquals(400, ThumbnailGenerator.snap(201));
+        assertEquals(800, ThumbnailGenerator.snap(800));
+        assertEquals(0, ThumbnailGenerator.snap(801));
+    }
+
+    @Test
+    void testVariantName() {
+        assertEquals("/blogs/ab/cd/h_w200.jpg", ImageStore.variantName("/blogs/ab/cd/h.JPG", 200));
+        assertEquals("/blogs/ab/cd/h_w400.png", ImageStore.variantName("/blogs/ab/cd/h.png", 400));
+        assertEquals("/blogs/ab/cd/h_w400.jpg", ImageStore.variantName("/blogs/ab/cd/h.webp", 400));
+        assertEquals("/blogs/a.b/cd/h_w400.jpg", ImageStore.variantName("/blogs/a.b/cd/h", 400));
+    }
+
+    @Test
+    void testGenerate() throws Exception {
+        Path original = dir.resolve("big.png");
+        ImageIO.write(new BufferedImage(3000, 1500, BufferedImage.TYPE_INT_ARGB), "png", original.toFile());
+
+        Path target = ThumbnailGenerator.generate(original, dir.resolve("big_w400.png"), 400);
+        BufferedImage thumb = ImageIO.read(target.toFile());
+        assertEquals(400, thumb.getWidth());
+        assertEquals(200, thumb.getHeight());
+
+        // 原图比目标小，不放大，直接复制
+        Path small = dir.resolve("small.jpg");
+        ImageIO.write(new BufferedImage(100, 80, BufferedImage.TYPE_INT_RGB), "jpg", small.toFile());
+        Path copy = ThumbnailGenerator.generate(small, dir.resolve("small_w200.jpg"), 200);
+        assertArrayEquals(Files.readAllBytes(small), Files.readAllBytes(copy));
+
+        // 无法解码的文件不生成
+        Path text = dir.resolve("text.jpg");
+        Files.write(text, "not an image".getBytes());
+        assertNull(ThumbnailGenerator.generate(text, dir.resolve("text_w200.jpg"), 200));
+
+        // 没有残留的临时文件
+        assertEquals(5, Files.list(dir).count());
+    }
+
+    @Test
+    void testIsOriginal() {
+        String hash = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+        assertTrue(ImageStore.isOriginal("/blogs/01/23/" + hash + ".jpg"));
+        assertTrue(ImageStore.isOriginal("/blogs/01/23/" + hash));
+        assertFalse(ImageStore.isOriginal("/blogs/01/23/" + hash + "_w200.jpg"));
+        assertFalse(ImageStore.isOriginal("/blogs/01/23/" + hash + "_w200_w200.jpg"));
+        assertFalse(ImageStore.isOriginal("/blogs/1/uuid.jpg"));
+        assertFalse(ImageStore.isOriginal("/blogs/01/23/" + hash + ".html"));
+    }
+}
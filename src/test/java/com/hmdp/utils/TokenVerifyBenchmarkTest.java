@@ -0,0 +1,82 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/11 16:40
+ * @description: 对比原来 HGETALL + fillBeanWithMap + EXPIRE 的校验方式和签名令牌本地校验的耗时
+ * 需要 Redis，默认不跑，用 mvn test -Pbenchmark 运行
+ */
+@Tag("benchmark")
+@SpringBootTest
+class TokenVerifyBenchmarkTest {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SignedTokenCodec signedTokenCodec;
+
+    private static final int N = 10_000;
+
+    @Test
+    void testVerify() {
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("NJFUer_test");
+        user.setIcon("");
+        // Redis 令牌
+        String token = UUID.randomUUID().toString(true);
+        Map<String, String> userMap = new HashMap<>();
+        userMap.put("id", user.getId().toString());
+        userMap.put("nickName", user.getNickName());
+        userMap.put("icon", user.getIcon());
+        stringRedisTemplate.opsForHash().putAll(LOGIN_USER_KEY + token, userMap);
+        // 签名令牌
+        String signed = signedTokenCodec.encode(user, System.currentTimeMillis() / 1000 + 3600);
+
+        // 两种方式解析出的用户一致
+        UserDTO fromRedis = BeanUtil.fillBeanWithMap(
+                stringRedisTemplate.opsForHash().entries(LOGIN_USER_KEY + token), new UserDTO(), false);
+        assertEquals(user, fromRedis);
+        assertEquals(user, signedTokenCodec.decode(signed, System.currentTimeMillis() / 1000));
+
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < N; i++) {
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(LOGIN_USER_KEY + token);
+            BeanUtil.fillBeanWithMap(entries, new UserDTO(), false);
+            stringRedisTemplate.expire(LOGIN_USER_KEY + token, 30, TimeUnit.MINUTES);
+        }
+        long end = System.currentTimeMillis();
+        long redisCost = end - begin;
+        System.out.println("HGETALL + EXPIRE : " + redisCost * 1000 / N + " us/op");
+
+        begin = System.currentTimeMillis();
+        for (int i = 0; i < N; i++) {
+            signedTokenCodec.decode(signed, System.currentTimeMillis() / 1000);
+        }
+        end = System.currentTimeMillis();
+        long signedCost = end - begin;
+        System.out.println("signed token : " + signedCost * 1000 / N + " us/op");
+
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        // 本地校验不需要网络往返，至少要比 Redis 快
+        assertTrue(signedCost < redisCost, "签名令牌校验没有比 HGETALL 快");
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author codeep
+ * @date 2023/8/30 10:35
+ * @description:
+ */
+class UserHashCodecTest {
+
+    @Test
+    void matchesBeanUtilEncoding() {
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("小鱼同学");
+        user.setIcon("");
+        // 和之前 BeanUtil.beanToMap 写入的会话格式一致
+        Map<String, Object> legacy = BeanUtil.beanToMap(user, new HashMap<>(10),
+                CopyOptions.create()
+                        .setIgnoreNullValue(true)
+                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
+        assertEquals(legacy, new HashMap<>(UserHashCodec.encode(user)));
+        assertEquals(user, UserHashCodec.decode(legacy));
+    }
+
+    @Test
+    void skipsNullFields() {
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        Map<String, String> hash = UserHashCodec.encode(user);
+        assertEquals(1, hash.size());
+        assertEquals(user, UserHashCodec.decode(hash));
+        assertNull(UserHashCodec.decode(new HashMap<>()));
+    }
+}